@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Helper for implementing IndexFiles that store their pages in one file:
+ * opens the file, reads and writes pages of the default page size, and
+ * closes it. Subclasses decode the pages.
+ * <p>
+ * An index file may be reopened later, so a stamp file next to it records
+ * the length and modification time of the table's file when the two were
+ * last known to match, and the layout of the index. The catalog rebuilds
+ * an index whose stamp doesn't match, like {@link BitmapIndex#load} does.
+ *
+ * @see BTreeFile
+ * @see HashIndexFile
+ */
+public abstract class AbstractIndexFile implements IndexFile {
+
+    private static final int STAMP_MAGIC = 0x49445853;
+
+    final File file;
+    final int id;
+    final int pageSize;
+
+    // opened lazily, like HeapFile's; positional I/O needs no locking
+    private final Object channelLock = new Object();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    AbstractIndexFile(File f) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.pageSize = BufferPool.getPageSize();
+    }
+
+    /** @return the page pid, decoded from data */
+    abstract Page createPage(PageId pid, byte[] data);
+
+    /** @return the id of page pgno of this file */
+    abstract PageId pageId(int pgno);
+
+    /**
+     * @return a description of what the entries hold, which must differ
+     *         between indexes that can't read each other's files
+     */
+    abstract String layout();
+
+    /**
+     * Builds the index from the tuples of the table read by tableTuples.
+     * The index must be empty.
+     *
+     * @return the number of entries added
+     */
+    public abstract int bulkLoad(DbFileIterator tableTuples)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /** Returns the File backing this index on disk. */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return (int) (file.length() / pageSize);
+    }
+
+    FileChannel getChannel() throws IOException {
+        synchronized (channelLock) {
+            if (channel == null) {
+                raf = new RandomAccessFile(file, "rw");
+                channel = raf.getChannel();
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Closes the file handle backing this index. The handle is reopened on
+     * the next page read or write.
+     */
+    public void close() {
+        synchronized (channelLock) {
+            if (channel == null)
+                return;
+            try {
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            raf = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Requests page pgno of this file and pins it in the buffer pool,
+     * recording its id in pins, so that it stays the cached copy while the
+     * caller requests other pages before changing it. The caller unpins
+     * the pages with {@link #unpinAll} once its changes are marked dirty.
+     */
+    Page pinPage(TransactionId tid, int pgno, Permissions perm, List<PageId> pins)
+        throws DbException, TransactionAbortedException {
+        PageId pid = pageId(pgno);
+        Page p = Database.getBufferPool().pinPage(tid, pid, perm);
+        pins.add(pid);
+        return p;
+    }
+
+    /** Unpins the pages pinned by {@link #pinPage}. */
+    static void unpinAll(List<PageId> pins) {
+        for (PageId pid : pins)
+            Database.getBufferPool().unpinPage(pid);
+        pins.clear();
+    }
+
+    /** @return the file holding the stamp of this index */
+    public File getStampFile() {
+        return new File(file.getPath() + ".stamp");
+    }
+
+    /**
+     * @return true if the index file is stamped as matching tableFile as it
+     *         is now, with entries of this index's layout
+     */
+    public boolean matches(File tableFile) {
+        if (file.length() == 0)
+            return false;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(getStampFile())));
+            try {
+                return in.readInt() == STAMP_MAGIC && in.readLong() == tableFile.length()
+                    && in.readLong() == tableFile.lastModified()
+                    && in.readLong() == file.length() && in.readUTF().equals(layout());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false; // missing or damaged
+        }
+    }
+
+    /**
+     * Records that the index file matches tableFile as it is now. Both
+     * files must be up to date on disk.
+     */
+    public void stamp(File tableFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(getStampFile())));
+        try {
+            out.writeInt(STAMP_MAGIC);
+            out.writeLong(tableFile.length());
+            out.writeLong(tableFile.lastModified());
+            out.writeLong(file.length());
+            out.writeUTF(layout());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Empties the file, dropping its pages from the buffer pool, so that
+     * the index can be built again.
+     */
+    void truncate() throws IOException {
+        getStampFile().delete();
+        for (int i = 0; i < numPages(); i++)
+            Database.getBufferPool().discardPage(pageId(i));
+        getChannel().truncate(0);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[pageSize];
+        try {
+            long offset = (long) pid.pageNumber() * pageSize;
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return createPage(pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        write(page.getId().pageNumber(), page.getPageData());
+        page.markDirty(false, null);
+    }
+
+    /** Writes data as page pgno, bypassing the buffer pool. */
+    void write(int pgno, byte[] data) throws IOException {
+        long offset = (long) pgno * pageSize;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+    }
+
+    // see DbFile.java for javadocs
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        int count = 0;
+        while (tuples.hasNext()) {
+            insertTuple(tid, tuples.next());
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ArcPolicy is the Adaptive Replacement Cache of Megiddo and Modha. It
+ * keeps pages requested once (t1) apart from pages requested again since
+ * they were read (t2), each in LRU order, and remembers the ids of pages
+ * recently evicted from either (b1 and b2). A scan only adds pages to t1,
+ * so it evicts its own pages rather than the frequently used ones in t2.
+ * <p>
+ * The target size of t1 adapts: it grows when a page evicted from t1 is
+ * read again, and shrinks when a page evicted from t2 is. The size of the
+ * cache, in pages, is the largest number of pages the pool has held.
+ */
+public class ArcPolicy extends EvictionPolicy {
+
+    // least recently used first
+    private final LinkedHashSet<PageId> t1 = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> t2 = new LinkedHashSet<PageId>();
+    // ids of pages evicted from t1 and t2, oldest first
+    private final LinkedHashSet<PageId> b1 = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> b2 = new LinkedHashSet<PageId>();
+    private int target = 0;
+    private int size = 0;
+
+    public synchronized void pageAdded(PageId pid) {
+        if (t1.contains(pid) || t2.contains(pid))
+            return;
+        if (b1.remove(pid)) {
+            target = Math.min(size, target + Math.max(b2.size() / Math.max(b1.size(), 1), 1));
+            t2.add(pid);
+        } else if (b2.remove(pid)) {
+            target = Math.max(0, target - Math.max(b1.size() / Math.max(b2.size(), 1), 1));
+            t2.add(pid);
+        } else {
+            t1.add(pid);
+        }
+        size = Math.max(size, t1.size() + t2.size());
+        // t1 and b1 together cover at most the size of the cache, and all
+        // four lists twice that
+        while (!b1.isEmpty() && t1.size() + b1.size() > size)
+            removeFirst(b1);
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * size)
+            removeFirst(b2.isEmpty() ? b1 : b2);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (t1.remove(pid) || t2.remove(pid))
+            t2.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        t1.remove(pid);
+        t2.remove(pid);
+    }
+
+    public synchronized PageId evict(Evictable pool) {
+        boolean fromT1 = !t1.isEmpty() && (t1.size() > target || t2.isEmpty());
+        PageId pid = evict(pool, fromT1 ? t1 : t2, fromT1 ? b1 : b2);
+        if (pid == null)
+            pid = evict(pool, fromT1 ? t2 : t1, fromT1 ? b2 : b1);
+        return pid;
+    }
+
+    /** Moves the least recently used page of from that may be evicted to ghosts. */
+    private static PageId evict(Evictable pool, LinkedHashSet<PageId> from,
+            LinkedHashSet<PageId> ghosts) {
+        Iterator<PageId> it = from.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (pool.canEvict(pid)) {
+                it.remove();
+                ghosts.add(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private static void removeFirst(LinkedHashSet<PageId> s) {
+        Iterator<PageId> it = s.iterator();
+        it.next();
+        it.remove();
+    }
+}
@@ -0,0 +1,651 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one int or string field of a table,
+ * mapping each key to the RecordIds of the tuples that hold it. Its pages
+ * are {@link BTreePage}s, read and cached through the BufferPool like the
+ * pages of any other DbFile, so a lookup reads one page per level of the
+ * tree.
+ * <p>
+ * Page 0 of the file is a meta page pointing at the root. Entries are
+ * ordered by key and then by RecordId, so duplicate keys are allowed and
+ * every entry can be found again to delete it. Inserts split full pages
+ * on the way back up; deletes only remove the entry from its leaf, and
+ * pages are never merged.
+ * <p>
+ * An index may also store copies of other fields of the table in its
+ * entries. A query that only uses the key and those included fields can
+ * then be answered from the index alone, see {@link IndexOnlyScan}.
+ * <p>
+ * Changes are made while holding the monitor of the file, and iterators
+ * read one leaf at a time under it, so they see each leaf in a consistent
+ * state. Page I/O doesn't take the monitor, so the BufferPool can read and
+ * write pages while a change is waiting for it.
+ *
+ * @see IndexScan
+ * @see Catalog#createIndex
+ * @see ClusteredBTreeFile
+ */
+public class BTreeFile extends AbstractIndexFile {
+
+    private final int tableId;
+    private final int keyField;
+    // the table fields stored in each entry after the key
+    private final int[] included;
+    private final TupleDesc td;
+
+    /**
+     * Opens (or creates, if f is empty or missing) an index on a field of
+     * a table.
+     *
+     * @param f the file the index is stored in
+     * @param tableId the id of the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     * @param tableTd the schema of the indexed table
+     */
+    public BTreeFile(File f, int tableId, int keyField, TupleDesc tableTd) {
+        this(f, tableId, keyField, new int[0], tableTd);
+    }
+
+    /**
+     * Opens (or creates) an index on a field of a table whose entries also
+     * hold copies of the included fields. The file must have been created
+     * with the same included fields.
+     *
+     * @param f the file the index is stored in
+     * @param tableId the id of the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     * @param included the indexes of the other fields to store, in order
+     * @param tableTd the schema of the indexed table
+     */
+    public BTreeFile(File f, int tableId, int keyField, int[] included, TupleDesc tableTd) {
+        this(f, entryDesc(tableTd, keyField, included), tableId, keyField, included);
+    }
+
+    /**
+     * Opens a tree whose entries have schema entryTd. A tableId of -1 means
+     * the tree indexes itself, as a {@link ClusteredBTreeFile} does.
+     */
+    BTreeFile(File f, TupleDesc entryTd, int tableId, int keyField) {
+        this(f, entryTd, tableId, keyField, new int[0]);
+    }
+
+    private BTreeFile(File f, TupleDesc entryTd, int tableId, int keyField, int[] included) {
+        super(f);
+        this.tableId = tableId == -1 ? id : tableId;
+        this.keyField = keyField;
+        this.included = included.clone();
+        this.td = entryTd;
+    }
+
+    /** @return the schema of the key followed by the included fields */
+    private static TupleDesc entryDesc(TupleDesc tableTd, int keyField, int[] included) {
+        Type[] types = new Type[included.length + 1];
+        String[] names = new String[included.length + 1];
+        types[0] = tableTd.getFieldType(keyField);
+        names[0] = tableTd.getFieldName(keyField);
+        for (int i = 0; i < included.length; i++) {
+            if (included[i] == keyField)
+                throw new IllegalArgumentException("the key can't also be included");
+            types[i + 1] = tableTd.getFieldType(included[i]);
+            names[i + 1] = tableTd.getFieldName(included[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the schema of the entries: the indexed field, then the included ones */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the indexes of the table fields stored in entries after the key */
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    /**
+     * @return the position within an entry of table field field, or -1 if
+     *         entries don't hold it
+     */
+    public int entryIndex(int field) {
+        if (field == keyField)
+            return 0;
+        for (int i = 0; i < included.length; i++) {
+            if (included[i] == field)
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /** @return the index of the key within an entry */
+    int getKeyIndex() {
+        return 0;
+    }
+
+    /** @return the table the RecordIds of the entries point into */
+    int getRidTable() {
+        return tableId;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+            || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+            || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    Page createPage(PageId pid, byte[] data) {
+        return new BTreePage((BTreePageId) pid, data, this);
+    }
+
+    PageId pageId(int pgno) {
+        return new BTreePageId(id, pgno);
+    }
+
+    String layout() {
+        return "btree " + pageSize + " " + keyField + " " + Arrays.toString(included);
+    }
+
+    /** Writes an empty meta page and root leaf if the file is empty. */
+    private synchronized void init() throws IOException {
+        if (file.length() > 0)
+            return;
+        byte[] meta = new byte[pageSize];
+        meta[0] = BTreePage.META;
+        Type.writeInt(meta, 1, 1);
+        write(0, meta);
+        write(1, BTreePage.createEmptyLeafData(pageSize));
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgno, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(id, pgno), perm);
+    }
+
+    /**
+     * Appends a page of the given kind to the file, pinned like
+     * {@link #pinPage}. The page is clean; the caller marks it dirty once it
+     * has filled it.
+     */
+    private synchronized BTreePage newPage(TransactionId tid, byte kind, List<PageId> pins)
+        throws DbException, IOException, TransactionAbortedException {
+        int pgno = numPages();
+        write(pgno, BTreePage.createEmptyLeafData(pageSize));
+        BTreePage p = (BTreePage) pinPage(tid, pgno, Permissions.READ_WRITE, pins);
+        synchronized (p) {
+            p.reset(kind);
+        }
+        return p;
+    }
+
+    /** Compares two keys of the same type. */
+    static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField) {
+            int x = ((IntField) a).getValue(), y = ((IntField) b).getValue();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    /** Compares entries by key, then by RecordId. */
+    int compare(Tuple a, Tuple b) {
+        int c = compareKeys(a.getField(getKeyIndex()), b.getField(getKeyIndex()));
+        if (c != 0 || getRidTable() == -1)
+            return c;
+        RecordId x = a.getRecordId(), y = b.getRecordId();
+        int px = x.getPageId().pageNumber(), py = y.getPageId().pageNumber();
+        if (px != py)
+            return px < py ? -1 : 1;
+        return x.tupleno() < y.tupleno() ? -1 : (x.tupleno() == y.tupleno() ? 0 : 1);
+    }
+
+    private final Comparator<Tuple> entryOrder = new Comparator<Tuple>() {
+        public int compare(Tuple a, Tuple b) {
+            return BTreeFile.this.compare(a, b);
+        }
+    };
+
+    /** @return the number of entries of list that are at most e */
+    private int upperBound(List<Tuple> list, Tuple e) {
+        int lo = 0, hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(list.get(mid), e) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the number of entries of list whose key is less than key, or
+     *         at most key if inclusive
+     */
+    private int keyBound(List<Tuple> list, Field key, boolean inclusive) {
+        int lo = 0, hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareKeys(list.get(mid).getField(getKeyIndex()), key);
+            if (c < 0 || (inclusive && c == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the entry stored in the index for tuple t of the table */
+    Tuple toEntry(Tuple t) throws DbException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no RecordId");
+        Tuple e = new Tuple(td);
+        e.setField(0, t.getField(keyField));
+        for (int i = 0; i < included.length; i++)
+            e.setField(i + 1, t.getField(included[i]));
+        e.setRecordId(t.getRecordId());
+        return e;
+    }
+
+    /** @return a separator with the key and RecordId of e */
+    private Tuple separator(Tuple e) {
+        Tuple s = new Tuple(td);
+        s.setField(getKeyIndex(), e.getField(getKeyIndex()));
+        s.setRecordId(e.getRecordId());
+        return s;
+    }
+
+    /** @return the leaf capacity, which subclasses may lower */
+    int leafCapacity() {
+        return BTreePage.leafCapacity(pageSize, td, getRidTable() != -1);
+    }
+
+    int internalCapacity() {
+        return BTreePage.internalCapacity(pageSize, td.getFieldType(getKeyIndex()), getRidTable() != -1);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        return insertEntry(tid, toEntry(t));
+    }
+
+    /**
+     * Adds an entry, splitting pages as needed. Each page is changed while
+     * holding its monitor, which {@link BTreePage#getPageData} takes too, and
+     * marked dirty once the change is complete, so the write-behind thread
+     * never writes half of a change and then marks the page clean. Pages
+     * are read before taking a monitor, as reading may make the buffer pool
+     * write other pages, and are pinned until the entry is in, as reading
+     * may also make it evict the clean pages read before.
+     */
+    synchronized ArrayList<Page> insertEntry(TransactionId tid, Tuple e)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<PageId> pins = new ArrayList<PageId>();
+        try {
+            return insertEntry(tid, e, pins);
+        } finally {
+            unpinAll(pins);
+        }
+    }
+
+    private ArrayList<Page> insertEntry(TransactionId tid, Tuple e, List<PageId> pins)
+        throws DbException, IOException, TransactionAbortedException {
+        init();
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        BTreePage meta = (BTreePage) pinPage(tid, 0, Permissions.READ_WRITE, pins);
+
+        // descend to the leaf, remembering the path
+        ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        ArrayList<Integer> positions = new ArrayList<Integer>();
+        BTreePage p = (BTreePage) pinPage(tid, meta.getRoot(), Permissions.READ_WRITE, pins);
+        while (!p.isLeaf()) {
+            int i = upperBound(p.entries, e);
+            path.add(p);
+            positions.add(i);
+            p = (BTreePage) pinPage(tid, p.children.get(i), Permissions.READ_WRITE, pins);
+        }
+
+        int at = upperBound(p.entries, e);
+        if (at > 0 && compare(p.entries.get(at - 1), e) == 0)
+            throw new DbException("duplicate entry " + e);
+        Tuple sep = null;
+        int right = 0;
+        BTreePage r = p.entries.size() + 1 > leafCapacity() ? newPage(tid, BTreePage.LEAF, pins) : null;
+        synchronized (p) {
+            p.entries.add(at, e);
+            if (r != null) {
+                synchronized (r) {
+                    List<Tuple> upper = p.entries.subList(p.entries.size() / 2, p.entries.size());
+                    r.entries.addAll(upper);
+                    upper.clear();
+                    r.setNext(p.getNext());
+                    r.markDirty(true, tid);
+                }
+                p.setNext(r.getId().pageNumber());
+                sep = separator(r.entries.get(0));
+                right = r.getId().pageNumber();
+            }
+            p.markDirty(true, tid);
+        }
+        dirty.add(p);
+        if (r != null)
+            dirty.add(r);
+
+        // insert separators into the parents, splitting them as needed
+        while (sep != null && !path.isEmpty()) {
+            BTreePage parent = path.remove(path.size() - 1);
+            int i = positions.remove(positions.size() - 1);
+            r = parent.entries.size() + 1 > internalCapacity()
+                ? newPage(tid, BTreePage.INTERNAL, pins) : null;
+            synchronized (parent) {
+                parent.entries.add(i, sep);
+                parent.children.add(i + 1, right);
+                sep = null;
+                if (r != null) {
+                    int mid = parent.entries.size() / 2;
+                    sep = parent.entries.get(mid);
+                    List<Tuple> upper = parent.entries.subList(mid + 1, parent.entries.size());
+                    List<Integer> upperChildren = parent.children.subList(mid + 1, parent.children.size());
+                    synchronized (r) {
+                        r.entries.addAll(upper);
+                        r.children.addAll(upperChildren);
+                        r.markDirty(true, tid);
+                    }
+                    upper.clear();
+                    upperChildren.clear();
+                    parent.entries.remove(mid);
+                    right = r.getId().pageNumber();
+                }
+                parent.markDirty(true, tid);
+            }
+            dirty.add(parent);
+            if (r != null)
+                dirty.add(r);
+        }
+
+        // the root split; grow the tree by a level
+        if (sep != null) {
+            BTreePage root = newPage(tid, BTreePage.INTERNAL, pins);
+            synchronized (root) {
+                root.children.add(meta.getRoot());
+                root.entries.add(sep);
+                root.children.add(right);
+                root.markDirty(true, tid);
+            }
+            synchronized (meta) {
+                meta.setRoot(root.getId().pageNumber());
+                meta.markDirty(true, tid);
+            }
+            dirty.add(root);
+            dirty.add(meta);
+        }
+        return dirty;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        return deleteEntry(tid, toEntry(t));
+    }
+
+    synchronized ArrayList<Page> deleteEntry(TransactionId tid, Tuple e)
+        throws DbException, IOException, TransactionAbortedException {
+        init();
+        BTreePage meta = getPage(tid, 0, Permissions.READ_ONLY);
+        BTreePage p = getPage(tid, meta.getRoot(), Permissions.READ_ONLY);
+        while (!p.isLeaf())
+            p = getPage(tid, p.children.get(upperBound(p.entries, e)), Permissions.READ_ONLY);
+        p = getPage(tid, p.getId().pageNumber(), Permissions.READ_WRITE);
+
+        int at = upperBound(p.entries, e) - 1;
+        if (at < 0 || compare(p.entries.get(at), e) != 0)
+            throw new DbException("entry " + e + " is not in the index");
+        synchronized (p) {
+            p.entries.remove(at);
+            p.markDirty(true, tid);
+        }
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(p);
+        return dirty;
+    }
+
+    /**
+     * Builds the index from the tuples of the table read by tableTuples,
+     * writing full leaves and the levels above them straight to disk. The
+     * index must be empty.
+     *
+     * @return the number of entries added
+     */
+    public synchronized int bulkLoad(DbFileIterator tableTuples)
+        throws DbException, IOException, TransactionAbortedException {
+        if (numPages() > 2)
+            throw new DbException("index is not empty");
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        tableTuples.open();
+        while (tableTuples.hasNext())
+            entries.add(toEntry(tableTuples.next()));
+        tableTuples.close();
+        Collections.sort(entries, entryOrder);
+        return buildFrom(entries);
+    }
+
+    /** Writes sorted entries as a new tree, replacing the file's contents. */
+    synchronized int buildFrom(List<Tuple> entries) throws DbException, IOException {
+        for (int i = 1; i < entries.size(); i++) {
+            if (compare(entries.get(i - 1), entries.get(i)) == 0)
+                throw new DbException("duplicate entry " + entries.get(i));
+        }
+        // drop the pages of the tree being replaced from the buffer pool
+        for (int i = 0; i < numPages(); i++)
+            Database.getBufferPool().discardPage(new BTreePageId(id, i));
+        getChannel().truncate(0);
+        int pgno = 1;
+
+        // the leaves, and the first entry and page number of each one
+        ArrayList<Tuple> firsts = new ArrayList<Tuple>();
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        int cap = leafCapacity();
+        int numLeaves = Math.max(1, (entries.size() + cap - 1) / cap);
+        for (int l = 0; l < numLeaves; l++) {
+            BTreePage leaf = new BTreePage(new BTreePageId(id, pgno),
+                    BTreePage.createEmptyLeafData(pageSize), this);
+            List<Tuple> part = entries.subList(l * cap, Math.min(entries.size(), (l + 1) * cap));
+            leaf.entries.addAll(part);
+            leaf.setNext(l + 1 < numLeaves ? pgno + 1 : 0);
+            if (!part.isEmpty())
+                firsts.add(separator(part.get(0)));
+            pages.add(pgno);
+            writeRaw(leaf);
+            pgno++;
+        }
+
+        // each level above has a child for every page of the level below
+        int fanout = internalCapacity() + 1;
+        while (pages.size() > 1) {
+            ArrayList<Tuple> upFirsts = new ArrayList<Tuple>();
+            ArrayList<Integer> upPages = new ArrayList<Integer>();
+            for (int i = 0; i < pages.size(); i += fanout) {
+                int end = Math.min(pages.size(), i + fanout);
+                BTreePage node = new BTreePage(new BTreePageId(id, pgno),
+                        BTreePage.createEmptyLeafData(pageSize), this);
+                node.reset(BTreePage.INTERNAL);
+                node.children.add(pages.get(i));
+                for (int j = i + 1; j < end; j++) {
+                    node.entries.add(firsts.get(j));
+                    node.children.add(pages.get(j));
+                }
+                upFirsts.add(firsts.get(i));
+                upPages.add(pgno);
+                writeRaw(node);
+                pgno++;
+            }
+            firsts = upFirsts;
+            pages = upPages;
+        }
+
+        byte[] meta = new byte[pageSize];
+        meta[0] = BTreePage.META;
+        Type.writeInt(meta, 1, pages.get(0));
+        write(0, meta);
+        return entries.size();
+    }
+
+    private void writeRaw(BTreePage p) throws IOException {
+        write(p.getId().pageNumber(), p.getPageData());
+    }
+
+    /** @return the number of levels of the tree, 1 for a lone root leaf */
+    public int getHeight(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        init();
+        int height = 1;
+        BTreePage p = getPage(tid, getPage(tid, 0, Permissions.READ_ONLY).getRoot(), Permissions.READ_ONLY);
+        while (!p.isLeaf()) {
+            p = getPage(tid, p.children.get(0), Permissions.READ_ONLY);
+            height++;
+        }
+        return height;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeIterator(tid, null, null);
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value) {
+        if (!supports(op))
+            throw new UnsupportedOperationException("B+ tree can't answer " + op);
+        return new BTreeIterator(tid, op, value);
+    }
+
+    /**
+     * Finds the first leaf that may hold an entry satisfying
+     * <code>key op value</code>; the leftmost leaf if op has no lower bound.
+     */
+    private synchronized int firstLeaf(TransactionId tid, Predicate.Op op, Field value)
+        throws DbException, IOException, TransactionAbortedException {
+        init();
+        BTreePage p = getPage(tid, getPage(tid, 0, Permissions.READ_ONLY).getRoot(), Permissions.READ_ONLY);
+        while (!p.isLeaf()) {
+            int i = 0;
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN_OR_EQ)
+                i = keyBound(p.entries, value, false);
+            else if (op == Predicate.Op.GREATER_THAN)
+                i = keyBound(p.entries, value, true);
+            p = getPage(tid, p.children.get(i), Permissions.READ_ONLY);
+        }
+        return p.getId().pageNumber();
+    }
+
+    /**
+     * Copies the entries of leaf pgno that satisfy <code>key op value</code>
+     * into out.
+     *
+     * @return the next leaf to read, or 0 if no later entry can match
+     */
+    private synchronized int readLeaf(TransactionId tid, int pgno, Predicate.Op op, Field value,
+            List<Tuple> out) throws DbException, TransactionAbortedException {
+        BTreePage p = getPage(tid, pgno, Permissions.READ_ONLY);
+        for (int i = 0; i < p.entries.size(); i++) {
+            Tuple e = p.entries.get(i);
+            // entries that hold the tuples themselves are found by position
+            if (getRidTable() == -1)
+                e.setRecordId(new RecordId(p.getId(), i));
+            if (op == null) {
+                out.add(e);
+                continue;
+            }
+            int c = compareKeys(e.getField(getKeyIndex()), value);
+            switch (op) {
+            case EQUALS:
+                if (c > 0)
+                    return 0;
+                if (c == 0)
+                    out.add(e);
+                break;
+            case LESS_THAN:
+                if (c >= 0)
+                    return 0;
+                out.add(e);
+                break;
+            case LESS_THAN_OR_EQ:
+                if (c > 0)
+                    return 0;
+                out.add(e);
+                break;
+            case GREATER_THAN:
+                if (c > 0)
+                    out.add(e);
+                break;
+            default: // GREATER_THAN_OR_EQ
+                if (c >= 0)
+                    out.add(e);
+                break;
+            }
+        }
+        return p.getNext();
+    }
+
+    /** Reads the matching entries a leaf at a time, following the leaf chain. */
+    private class BTreeIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field value;
+        private final ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+        private int pos;
+        private int nextLeaf;
+        private boolean open;
+
+        BTreeIterator(TransactionId tid, Predicate.Op op, Field value) {
+            this.tid = tid;
+            this.op = op;
+            this.value = value;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            buffer.clear();
+            pos = 0;
+            try {
+                nextLeaf = firstLeaf(tid, op, value);
+            } catch (IOException e) {
+                throw new DbException("error reading index: " + e);
+            }
+            open = true;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return null;
+            while (pos == buffer.size()) {
+                if (nextLeaf == 0)
+                    return null;
+                buffer.clear();
+                pos = 0;
+                nextLeaf = readLeaf(tid, nextLeaf, op, value, buffer);
+            }
+            return buffer.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            open = false;
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BTreePage is a page of a {@link BTreeFile}: the file's meta page, a leaf
+ * or an internal node. Every page starts with a one byte kind.
+ * <p>
+ * The meta page (page 0) holds the page number of the root. A leaf holds
+ * the number of entries, the page number of the next leaf (0 for the last
+ * one) and the entries in key order. An entry is a tuple of the file's
+ * TupleDesc, followed by the page and slot of its RecordId if the file
+ * indexes another table. An internal node holds the number of separators,
+ * and its first child followed by each separator key (and RecordId) and
+ * the child to its right. All entries of a child are at least the
+ * separator to its left and less than the one to its right.
+ * <p>
+ * The page is decoded when it is read, and encoded again by
+ * {@link #getPageData}.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final byte META = 0;
+    static final byte LEAF = 1;
+    static final byte INTERNAL = 2;
+
+    // kind, count, next leaf
+    private static final int HEADER_SIZE = 9;
+
+    private final BTreePageId pid;
+    private final TupleDesc td;
+    private final int keyField;
+    // the table the RecordIds of entries point into, or -1 for a clustered
+    // file whose entries are the tuples themselves
+    private final int ridTable;
+    private final int pageSize;
+
+    private byte kind;
+    private int root;
+    private int next;
+    // leaf entries, or the separators of an internal node
+    final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+    final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    private byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    /**
+     * Creates a page of an index in the catalog from bytes read from disk.
+     */
+    public BTreePage(BTreePageId id, byte[] data) {
+        this(id, data, (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId()));
+    }
+
+    BTreePage(BTreePageId id, byte[] data, BTreeFile file) {
+        this(id, data, file.getTupleDesc(), file.getKeyIndex(), file.getRidTable());
+    }
+
+    private BTreePage(BTreePageId id, byte[] data, TupleDesc td, int keyField, int ridTable) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+        this.ridTable = ridTable;
+        this.pageSize = data.length;
+        oldData = data;
+
+        kind = data[0];
+        if (kind == META) {
+            root = Type.readInt(data, 1);
+            return;
+        }
+        int count = Type.readInt(data, 1);
+        next = Type.readInt(data, 5);
+        int off = HEADER_SIZE;
+        if (kind == LEAF) {
+            for (int i = 0; i < count; i++) {
+                Tuple t = new Tuple(td);
+                for (int f = 0; f < td.numFields(); f++) {
+                    t.setField(f, td.getFieldType(f).parse(data, off));
+                    off += td.getFieldType(f).getLen();
+                }
+                off = readRid(t, data, off, i);
+                entries.add(t);
+            }
+        } else {
+            Type keyType = td.getFieldType(keyField);
+            children.add(Type.readInt(data, off));
+            off += 4;
+            for (int i = 0; i < count; i++) {
+                Tuple sep = new Tuple(td);
+                sep.setField(keyField, keyType.parse(data, off));
+                off = readRid(sep, data, off + keyType.getLen(), i);
+                entries.add(sep);
+                children.add(Type.readInt(data, off));
+                off += 4;
+            }
+        }
+    }
+
+    private int readRid(Tuple t, byte[] data, int off, int slot) {
+        if (ridTable == -1) {
+            t.setRecordId(new RecordId(pid, slot));
+            return off;
+        }
+        t.setRecordId(new RecordId(new HeapPageId(ridTable, Type.readInt(data, off)),
+                Type.readInt(data, off + 4)));
+        return off + 8;
+    }
+
+    private int writeRid(Tuple t, byte[] data, int off) {
+        if (ridTable == -1)
+            return off;
+        RecordId rid = t.getRecordId();
+        Type.writeInt(data, off, rid.getPageId().pageNumber());
+        Type.writeInt(data, off + 4, rid.tupleno());
+        return off + 8;
+    }
+
+    /** @return the data of an empty leaf page of pageSize bytes */
+    static byte[] createEmptyLeafData(int pageSize) {
+        byte[] data = new byte[pageSize];
+        data[0] = LEAF;
+        return data;
+    }
+
+    /** @return the number of entries a leaf of pageSize bytes holds */
+    static int leafCapacity(int pageSize, TupleDesc td, boolean rids) {
+        return (pageSize - HEADER_SIZE) / (td.getSize() + (rids ? 8 : 0));
+    }
+
+    /** @return the number of separators an internal node holds */
+    static int internalCapacity(int pageSize, Type keyType, boolean rids) {
+        return (pageSize - HEADER_SIZE - 4) / (keyType.getLen() + (rids ? 8 : 0) + 4);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    boolean isLeaf() {
+        return kind == LEAF;
+    }
+
+    /** Turns this page into an empty page of the given kind. */
+    void reset(byte kind) {
+        this.kind = kind;
+        entries.clear();
+        children.clear();
+        next = 0;
+    }
+
+    /** @return the root page number, if this is the meta page */
+    int getRoot() {
+        return root;
+    }
+
+    void setRoot(int root) {
+        this.root = root;
+    }
+
+    /** @return the page number of the next leaf, or 0 for the last leaf */
+    int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * Encodes the page. This may run in the write-behind thread while the
+     * BTreeFile modifies the page; the monitor, which the BTreeFile holds
+     * while it modifies the page, keeps it from seeing half a change.
+     */
+    public synchronized byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        data[0] = kind;
+        if (kind == META) {
+            Type.writeInt(data, 1, root);
+            return data;
+        }
+        Object[] es = entries.toArray();
+        Object[] cs = children.toArray();
+        int count = 0;
+        int off = HEADER_SIZE;
+        if (kind == LEAF) {
+            for (Object o : es) {
+                Tuple t = (Tuple) o;
+                if (t == null)
+                    continue;
+                for (int f = 0; f < td.numFields(); f++) {
+                    t.getField(f).serialize(data, off);
+                    off += td.getFieldType(f).getLen();
+                }
+                off = writeRid(t, data, off);
+                count++;
+            }
+        } else if (cs.length > 0 && cs[0] != null) {
+            int keyLen = td.getFieldType(keyField).getLen();
+            Type.writeInt(data, off, (Integer) cs[0]);
+            off += 4;
+            for (int i = 0; i < es.length && i + 1 < cs.length; i++) {
+                if (es[i] == null || cs[i + 1] == null)
+                    break;
+                ((Tuple) es[i]).getField(keyField).serialize(data, off);
+                off = writeRid((Tuple) es[i], data, off + keyLen);
+                Type.writeInt(data, off, (Integer) cs[i + 1]);
+                off += 4;
+                count++;
+            }
+        }
+        Type.writeInt(data, 1, count);
+        Type.writeInt(data, 5, next);
+        return data;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public synchronized BTreePage getBeforeImage() {
+        return new BTreePage(pid, oldData, td, keyField, ridTable);
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
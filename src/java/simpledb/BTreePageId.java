@@ -0,0 +1,46 @@
+package simpledb;
+
+/** Unique identifier for a page of a {@link BTreeFile}. */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pageNumber;
+
+    /**
+     * Constructor.
+     *
+     * @param tableId the id of the index file (see {@link BTreeFile#getId})
+     * @param pgNo the page number within the index file
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNumber = pgNo;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int pageNumber() {
+        return pageNumber;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pageNumber;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof PageId))
+            return false;
+        PageId other = (PageId) o;
+        return tableId == other.getTableId() && pageNumber == other.pageNumber();
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, pageNumber };
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pageNumber + ")";
+    }
+}
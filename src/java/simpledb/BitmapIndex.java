@@ -0,0 +1,332 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndex is an index on one field of a HeapFile with few distinct
+ * values, such as a status or region column. For each value it keeps an
+ * {@link RleBitmap} of the tuples holding it, where the tuple in slot s of
+ * page p is bit <code>p * stride + s</code> and the stride is the table's
+ * page size, which no page format has as many slots as. Equality and IN
+ * predicates are answered by OR-ing the bitmaps of the values, and
+ * predicates on several indexed fields by AND-ing the results; see
+ * {@link BitmapScan}.
+ * <p>
+ * The bitmaps are kept in memory and saved to the index's own file when it
+ * is closed, along with the length and modification time of the table's
+ * file. {@link #load} refuses a file that doesn't match the table, which
+ * is then indexed again with {@link #build}. Registered with
+ * {@link Catalog#addIndex}, the index is kept up to date by the BufferPool
+ * like any other IndexFile. It has no pages, so it can't be read through
+ * the BufferPool.
+ *
+ * @see Catalog#createBitmapIndex
+ */
+public class BitmapIndex implements IndexFile {
+
+    private static final int MAGIC = 0x424D4958;
+
+    private final File file;
+    private final int id;
+    private final HeapFile table;
+    private final int keyField;
+    private final TupleDesc td;
+    private final long stride;
+
+    private final HashMap<Field, RleBitmap> bitmaps = new HashMap<Field, RleBitmap>();
+    private boolean changed = false;
+
+    /**
+     * Creates an empty index on a field of a table; see {@link #load} and
+     * {@link #build} to fill it.
+     *
+     * @param f the file the index is saved in
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     */
+    public BitmapIndex(File f, HeapFile table, int keyField) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.table = table;
+        this.keyField = keyField;
+        TupleDesc tableTd = table.getTupleDesc();
+        this.td = new TupleDesc(new Type[] { tableTd.getFieldType(keyField) },
+                new String[] { tableTd.getFieldName(keyField) });
+        this.stride = table.getPageSize();
+    }
+
+    /** Returns the File the index is saved in. */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getTableId() {
+        return table.getId();
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the schema of the entries: the indexed field */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /** @return the bit of the tuple with RecordId rid */
+    long bitOf(RecordId rid) {
+        return rid.getPageId().pageNumber() * stride + rid.tupleno();
+    }
+
+    /** @return the RecordId of the tuple at bit */
+    RecordId ridOf(long bit) {
+        return new RecordId(new HeapPageId(table.getId(), (int) (bit / stride)),
+                (int) (bit % stride));
+    }
+
+    /** @return the number of distinct values in the index */
+    public synchronized int numValues() {
+        return bitmaps.size();
+    }
+
+    /** @return the tuples whose key equals value */
+    public synchronized RleBitmap lookup(Field value) {
+        RleBitmap b = bitmaps.get(value);
+        return b == null ? new RleBitmap() : new RleBitmap(b);
+    }
+
+    /** @return the tuples whose key is one of values, like an IN list */
+    public synchronized RleBitmap lookup(Collection<Field> values) {
+        RleBitmap r = new RleBitmap();
+        for (Field v : values) {
+            RleBitmap b = bitmaps.get(v);
+            if (b != null)
+                r = r.or(b);
+        }
+        return r;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        throw new UnsupportedOperationException("bitmap indexes have no pages");
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page p) throws IOException {
+        throw new UnsupportedOperationException("bitmap indexes have no pages");
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no RecordId");
+        Field key = t.getField(keyField);
+        RleBitmap b = bitmaps.get(key);
+        if (b == null) {
+            b = new RleBitmap();
+            bitmaps.put(key, b);
+        }
+        if (!b.set(bitOf(t.getRecordId())))
+            throw new DbException("duplicate entry for " + t);
+        changed = true;
+        return new ArrayList<Page>();
+    }
+
+    // see DbFile.java for javadocs
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        int count = 0;
+        while (tuples.hasNext()) {
+            insertTuple(tid, tuples.next());
+            count++;
+        }
+        return count;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no RecordId");
+        Field key = t.getField(keyField);
+        RleBitmap b = bitmaps.get(key);
+        if (b == null || !b.clear(bitOf(t.getRecordId())))
+            throw new DbException("entry for " + t + " is not in the index");
+        if (b.isEmpty())
+            bitmaps.remove(key);
+        changed = true;
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Indexes every tuple of the table, replacing the current contents.
+     *
+     * @return the number of tuples indexed
+     */
+    public synchronized int build(TransactionId tid)
+        throws DbException, IOException, TransactionAbortedException {
+        bitmaps.clear();
+        changed = true;
+        int count = 0;
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            insertTuple(tid, it.next());
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Reads the bitmaps saved in the index's file.
+     *
+     * @return false, leaving the index empty, if the file is missing,
+     *         damaged or doesn't match the table's file
+     */
+    public synchronized boolean load() {
+        bitmaps.clear();
+        changed = false;
+        if (!file.exists())
+            return false;
+        File dataFile = table.getFile();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != dataFile.length()
+                    || in.readLong() != dataFile.lastModified() || in.readLong() != stride)
+                    return false;
+                int values = in.readInt();
+                Type type = td.getFieldType(0);
+                for (int i = 0; i < values; i++) {
+                    Field key = type.parse(in);
+                    bitmaps.put(key, RleBitmap.deserialize(in));
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            bitmaps.clear();
+        } catch (java.text.ParseException e) {
+            bitmaps.clear();
+        }
+        return false;
+    }
+
+    /** Writes the bitmaps to the index's file if they changed. */
+    public synchronized void save() {
+        if (!changed)
+            return;
+        File dataFile = table.getFile();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeLong(dataFile.length());
+                out.writeLong(dataFile.lastModified());
+                out.writeLong(stride);
+                out.writeInt(bitmaps.size());
+                for (Map.Entry<Field, RleBitmap> e : bitmaps.entrySet()) {
+                    e.getKey().serialize(out);
+                    e.getValue().serialize(out);
+                }
+            } finally {
+                out.close();
+            }
+            changed = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Saves the index; see {@link #save}. */
+    public void close() {
+        save();
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BitmapIterator(null);
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value) {
+        if (!supports(op))
+            throw new UnsupportedOperationException("bitmap index can't answer " + op);
+        return new BitmapIterator(value);
+    }
+
+    /** Returns the entries of one value, or of every value, in RecordId order. */
+    private class BitmapIterator extends AbstractDbFileIterator {
+
+        private final Field value;
+        private final ArrayList<Field> keys = new ArrayList<Field>();
+        private final ArrayList<RleBitmap> sets = new ArrayList<RleBitmap>();
+        private int current;
+        private long bit;
+        private boolean open;
+
+        BitmapIterator(Field value) {
+            this.value = value;
+        }
+
+        public void open() {
+            keys.clear();
+            sets.clear();
+            synchronized (BitmapIndex.this) {
+                if (value != null) {
+                    keys.add(value);
+                    sets.add(lookup(value));
+                } else {
+                    for (Map.Entry<Field, RleBitmap> e : bitmaps.entrySet()) {
+                        keys.add(e.getKey());
+                        sets.add(new RleBitmap(e.getValue()));
+                    }
+                }
+            }
+            current = 0;
+            bit = 0;
+            open = true;
+        }
+
+        protected Tuple readNext() {
+            if (!open)
+                return null;
+            while (current < sets.size()) {
+                long next = sets.get(current).nextSetBit(bit);
+                if (next >= 0) {
+                    bit = next + 1;
+                    Tuple e = new Tuple(td);
+                    e.setField(0, keys.get(current));
+                    e.setRecordId(ridOf(next));
+                    return e;
+                }
+                current++;
+                bit = 0;
+            }
+            return null;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a table whose
+ * fields satisfy a conjunction of equality and IN predicates, each on a
+ * field with a {@link BitmapIndex}. When opened, it ORs the bitmaps of
+ * each predicate's values and ANDs the results, then fetches the matching
+ * tuples in RecordId order, so each page of the table holding a match is
+ * read once and pages without matches aren't read at all.
+ */
+public class BitmapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final TupleDesc td;
+
+    private final ArrayList<BitmapIndex> indexes = new ArrayList<BitmapIndex>();
+    private final ArrayList<List<Field>> values = new ArrayList<List<Field>>();
+
+    private RleBitmap rows;
+    private long numMatches;
+    private long bit;
+    private TuplePage page;
+    private Tuple next;
+
+    /**
+     * Creates a scan of a table; see {@link #addPredicate} for what it
+     * returns.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableId the table to scan
+     * @param tableAlias the alias of the table
+     */
+    public BitmapScan(TransactionId tid, int tableId, String tableAlias) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        this.td = Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * Restricts the scan to tuples whose key in index is one of values.
+     * Must be called at least once before {@link #open}.
+     *
+     * @throws IllegalArgumentException if index isn't on the scanned table
+     */
+    public void addPredicate(BitmapIndex index, List<Field> values) {
+        if (index.getTableId() != tableId)
+            throw new IllegalArgumentException("index is not on the scanned table");
+        indexes.add(index);
+        this.values.add(new ArrayList<Field>(values));
+    }
+
+    /** Restricts the scan to tuples whose key in index equals value. */
+    public void addPredicate(BitmapIndex index, Field value) {
+        addPredicate(index, Collections.singletonList(value));
+    }
+
+    /** @return the name of the table the operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the number of tuples that matched when the scan was last opened */
+    public long getNumMatches() {
+        return numMatches;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (indexes.isEmpty())
+            throw new DbException("bitmap scan has no predicates");
+        RleBitmap r = null;
+        for (int i = 0; i < indexes.size(); i++) {
+            RleBitmap b = indexes.get(i).lookup(values.get(i));
+            r = r == null ? b : r.and(b);
+        }
+        rows = r;
+        numMatches = r.cardinality();
+        bit = 0;
+        page = null;
+        next = null;
+    }
+
+    /** Returns the TupleDesc of the scanned table. */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (rows == null)
+            throw new IllegalStateException("BitmapScan not open");
+        while (next == null) {
+            long b = rows.nextSetBit(bit);
+            if (b < 0)
+                return false;
+            bit = b + 1;
+            RecordId rid = indexes.get(0).ridOf(b);
+            // consecutive matches are mostly on the same page
+            if (page == null || !page.getId().equals(rid.getPageId()))
+                page = (TuplePage) Database.getBufferPool().getPage(tid,
+                        rid.getPageId(), Permissions.READ_ONLY);
+            next = page.getTupleFromSlot(rid.tupleno());
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        bit = 0;
+        page = null;
+        next = null;
+    }
+
+    public void close() {
+        rows = null;
+        page = null;
+        next = null;
+    }
+}
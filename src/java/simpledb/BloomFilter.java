@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BloomFilter is a compact set of fields that can report false positives
+ * but no false negatives: {@link #mightContain} is true for every field
+ * added, and for few others. Each field sets a fixed number of bits of a
+ * bit array, derived from two hashes of the field by double hashing.
+ *
+ * @see LsmTreeFile
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Creates an empty filter sized for a number of fields.
+     *
+     * @param expected the number of fields that will be added
+     * @param bitsPerField the number of bits per field; 10 gives about
+     *        one false positive in a hundred
+     */
+    public BloomFilter(int expected, int bitsPerField) {
+        this(Math.max(64, expected * bitsPerField),
+                Math.max(1, (int) Math.round(bitsPerField * Math.log(2))), null);
+    }
+
+    private BloomFilter(int numBits, int numHashes, long[] bits) {
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+        this.bits = bits != null ? bits : new long[(numBits + 63) / 64];
+    }
+
+    /** Mixes the bits of h, so that close hash codes set distant bits. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** @return the i-th bit of f */
+    private int bit(int h1, int h2, int i) {
+        int h = h1 + i * h2;
+        return (h & Integer.MAX_VALUE) % numBits;
+    }
+
+    public void add(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int b = bit(h1, h2, i);
+            bits[b >>> 6] |= 1L << b;
+        }
+    }
+
+    /** @return false if f was certainly never added */
+    public boolean mightContain(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int b = bit(h1, h2, i);
+            if ((bits[b >>> 6] & (1L << b)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** @return the number of bytes {@link #serialize} writes */
+    public int serializedSize() {
+        return 8 + bits.length * 8;
+    }
+
+    /** Writes the filter to out. */
+    public void serialize(DataOutputStream out) throws IOException {
+        out.writeInt(numBits);
+        out.writeInt(numHashes);
+        for (long word : bits)
+            out.writeLong(word);
+    }
+
+    /** Reads a filter written by {@link #serialize}. */
+    public static BloomFilter deserialize(DataInputStream in) throws IOException {
+        int numBits = in.readInt();
+        int numHashes = in.readInt();
+        long[] bits = new long[(numBits + 63) / 64];
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = in.readLong();
+        return new BloomFilter(numBits, numHashes, bits);
+    }
+}
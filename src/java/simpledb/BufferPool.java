@@ -1,9 +1,13 @@
 package simpledb;
 
 import java.io.*;
-import java.util.Map;
+import java.util.*;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -27,23 +31,120 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    // most pages flushAllPages writes at once; gathering writes of more
+    // buffers than IOV_MAX (1024 on Linux) are split by the JDK anyway
+    private static final int FLUSH_MAX_RUN = 1024;
+
 	//public static Page[] pages;
     public int m_numPages;
     Map<PageId, Page> m_pages;
 
+    // tables may have different page sizes, so the pool is limited to the
+    // bytes numPages default size pages take, rather than to a page count
+    private final long m_capacity;
+    private final AtomicLong m_bytes = new AtomicLong();
+
+    // pages being read from disk, so concurrent requests share one read
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> m_loading;
+    // pages brought in by read-ahead that haven't been requested yet
+    private final ConcurrentHashMap<PageId, Boolean> m_prefetched;
+    private final ReadAhead m_readAhead;
+    // pages the write-behind thread is writing, which must not be evicted
+    final ConcurrentHashMap<PageId, Boolean> m_writing;
+    // pages callers hold across other requests, with the number of pins
+    private final HashMap<PageId, Integer> m_pinned;
+    private final WriteBehind m_writeBehind;
+    private final EvictionPolicy m_policy;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * size, or the same number of bytes of pages of other sizes, and evicts
+     * pages with an {@link ArcPolicy}.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ArcPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * size, or the same number of bytes of pages of other sizes.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy that chooses the pages to evict; it must not
+     *        be used by another buffer pool
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
 		m_pages = new ConcurrentHashMap<PageId, Page>();
         m_numPages = numPages;
+        m_capacity = (long) numPages * getPageSize();
+        m_loading = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+        m_prefetched = new ConcurrentHashMap<PageId, Boolean>();
+        m_readAhead = new ReadAhead(this);
+        m_writing = new ConcurrentHashMap<PageId, Boolean>();
+        m_pinned = new HashMap<PageId, Integer>();
+        m_writeBehind = new WriteBehind(this);
+        m_policy = policy;
+    }
+
+    /**
+     * @return the policy that chooses the pages this buffer pool evicts, to
+     *         read its hit ratio
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return m_policy;
+    }
+
+    /**
+     * @return the read-ahead facility of this buffer pool, to configure it
+     *         and read its counters
+     */
+    public ReadAhead getReadAhead() {
+        return m_readAhead;
     }
     
     public static int getPageSize() {
       return pageSize;
     }
+
+    /**
+     * @return the background writer of this buffer pool, to start it and
+     *         read its counters
+     */
+    public WriteBehind getWriteBehind() {
+        return m_writeBehind;
+    }
+
+    /**
+     * @return the number of pages of the default size that could be read
+     *         without writing a page first: free space plus clean pages
+     */
+    public int getNumCleanPages() {
+        int clean = (int) (Math.max(0, m_capacity - m_bytes.get()) / getPageSize());
+        for (Page p : m_pages.values()) {
+            if (p.isDirty() == null)
+                clean++;
+        }
+        return clean;
+    }
+
+    /** @return the number of bytes of pages this buffer pool holds */
+    public long getCapacity() {
+        return m_capacity;
+    }
+
+    /** @return the size of the pages of the table pid belongs to */
+    private int pageSize(PageId pid) {
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (f instanceof HeapFile)
+                return ((HeapFile) f).getPageSize();
+        } catch (NoSuchElementException e) {
+            // the table was dropped; it can only have used the default
+        }
+        return getPageSize();
+    }
     
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
@@ -91,15 +192,133 @@ public class BufferPool {
         this.pages = newArray;
         return getPage(tid, pid, perm);*/
             
+            m_readAhead.cancel(pid);
             Page p = m_pages.get(pid);
             if (p == null) {
-                if (m_pages.size() >= m_numPages) {
-                    evictPage();
+                m_policy.countMiss();
+                return loadPage(pid, false);
+            }
+            m_policy.countHit();
+            // the first request of a prefetched page isn't a reuse of it
+            if (m_prefetched.remove(pid) != null)
+                m_readAhead.countHit(false);
+            else
+                m_policy.pageAccessed(pid);
+            return p;
+    }
+
+    /**
+     * Like {@link #getPage}, but the page is not evicted until it has been
+     * unpinned as many times as it was pinned. A caller that changes a page
+     * after requesting other pages pins it, so that the page it changes is
+     * still the cached copy, not one the pool evicted meanwhile and will
+     * read again from disk.
+     *
+     * @see #unpinPage
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        while (true) {
+            Page p = getPage(tid, pid, perm);
+            // pages are only evicted holding the pool's lock; if this one
+            // went meanwhile, request it again
+            synchronized (this) {
+                if (m_pages.get(pid) == p) {
+                    Integer pins = m_pinned.get(pid);
+                    m_pinned.put(pid, pins == null ? 1 : pins + 1);
+                    return p;
+                }
+            }
+        }
+    }
+
+    /** Releases one pin of pid taken by {@link #pinPage}. */
+    public synchronized void unpinPage(PageId pid) {
+        Integer pins = m_pinned.get(pid);
+        if (pins == null)
+            return;
+        if (pins == 1)
+            m_pinned.remove(pid);
+        else
+            m_pinned.put(pid, pins - 1);
+    }
+
+    /**
+     * Reads a page that isn't cached into the buffer pool, evicting a page
+     * if the pool is full. If the page is already being read, waits for
+     * that read instead of issuing another one.
+     *
+     * @param prefetch true if the page is read ahead of being requested
+     */
+    private Page loadPage(final PageId pid, final boolean prefetch) throws DbException {
+        FutureTask<Page> load = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                // it may have been read since the caller looked
+                Page p = m_pages.get(pid);
+                if (p != null)
+                    return p;
+                int size = pageSize(pid);
+                synchronized (BufferPool.this) {
+                    while (m_bytes.get() + size > m_capacity) {
+                        if (!evictPage())
+                            break;
+                    }
                 }
                 p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                if (prefetch) {
+                    m_prefetched.put(pid, Boolean.TRUE);
+                    m_readAhead.countPrefetch();
+                }
                 m_pages.put(pid, p);
+                m_bytes.addAndGet(size);
+                m_policy.pageAdded(pid);
+                return p;
             }
-            return p;
+        });
+        FutureTask<Page> running = m_loading.putIfAbsent(pid, load);
+        if (running == null) {
+            running = load;
+            load.run();
+            m_loading.remove(pid, load);
+        }
+
+        Page p;
+        try {
+            p = running.get();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while reading page " + pid);
+        } catch (ExecutionException e) {
+            if (running != load)
+                return loadPage(pid, prefetch); // let the caller see its own error
+            if (e.getCause() instanceof DbException)
+                throw (DbException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new DbException("error reading page " + pid + ": " + e.getCause());
+        }
+        if (!prefetch && m_prefetched.remove(pid) != null)
+            m_readAhead.countHit(running != load);
+        return p;
+    }
+
+    /** @return true if pid is cached or being read */
+    boolean isCached(PageId pid) {
+        return m_pages.containsKey(pid) || m_loading.containsKey(pid);
+    }
+
+    /**
+     * Reads pid into the buffer pool on behalf of read-ahead, unless it is
+     * already there. Errors are ignored; the page will simply be read when
+     * it is requested.
+     */
+    void prefetchPage(PageId pid) {
+        if (isCached(pid))
+            return;
+        try {
+            loadPage(pid, true);
+        } catch (Exception e) {
+            // e.g. the table was removed from the catalog in the meantime
+        }
     }
 
     /**
@@ -155,6 +374,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The tuple is then added to the indexes on the table.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -165,6 +385,34 @@ public class BufferPool {
         // some code goes here - d?
         // not necessary for lab1 -- do this one
             Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+            for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+                index.insertTuple(tid, t);
+    }
+
+    /**
+     * Add all the tuples read from an open iterator to the specified table
+     * on behalf of transaction tid. The tuples are appended to new pages,
+     * which bypass the buffer pool: they are logged and written to disk
+     * in batches by the table's DbFile. Tables with indexes take the path
+     * of {@link #insertTuple} instead, one tuple at a time, so that every
+     * tuple's RecordId is known when it is added to the indexes.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @return the number of tuples added
+     * @see DbFile#insertTuples
+     */
+    public int insertTuples(TransactionId tid, int tableId, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        if (Database.getCatalog().getIndexes(tableId).isEmpty())
+            return Database.getCatalog().getDatabaseFile(tableId).insertTuples(tid, tuples);
+        int count = 0;
+        while (tuples.hasNext()) {
+            insertTuple(tid, tableId, tuples.next());
+            count++;
+        }
+        return count;
     }
 
     /**
@@ -175,6 +423,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The tuple is also removed from the indexes on its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -183,30 +432,182 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here -d
         // not necessary for lab1 -- do this one
-            Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
+            RecordId rid = t.getRecordId();
+            int tableId = rid.getPageId().getTableId();
+            Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
+            List<IndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+            if (!indexes.isEmpty()) {
+                // deleting cleared the RecordId the entries are found by
+                RecordId cleared = t.getRecordId();
+                t.setRecordId(rid);
+                try {
+                    for (IndexFile index : indexes)
+                        index.deleteTuple(tid, t);
+                } finally {
+                    t.setRecordId(cleared);
+                }
+            }
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk. The pages of each table are written in
+     * page number order, with a single write per run of consecutive pages.
+     * Like every write of a dirty page, the changes are logged first.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here - done
         // not necessary for lab1 -- do last
-        for (PageId p : m_pages.keySet()) {
-            flushPage(p);
+        // a few large sequential writes instead of one write per page in
+        // hash order
+        writeDirtyPages(Integer.MAX_VALUE, FLUSH_MAX_RUN);
+    }
+
+    /**
+     * Writes up to maxPages dirty pages to disk, grouped by table and in page
+     * number order, with one gathering write per run of up to maxRun
+     * consecutive pages. A page is marked clean before its contents are
+     * copied, so a page modified meanwhile stays dirty.
+     * <p>
+     * The pages may hold changes of transactions that are still running, so
+     * they are written ahead to the log, with their before images, and the
+     * log is forced before the pages reach their files; recovery can then
+     * undo the changes if the transactions don't commit.
+     *
+     * @return the number of pages written and the number of writes issued
+     * @see HeapFile#writePages
+     */
+    int[] writeDirtyPages(int maxPages, int maxRun) throws IOException {
+        HashMap<Integer, ArrayList<Page>> byTable = new HashMap<Integer, ArrayList<Page>>();
+        for (Page p : m_pages.values()) {
+            if (p.isDirty() == null)
+                continue;
+            ArrayList<Page> pages = byTable.get(p.getId().getTableId());
+            if (pages == null) {
+                pages = new ArrayList<Page>();
+                byTable.put(p.getId().getTableId(), pages);
+            }
+            pages.add(p);
+        }
+
+        int written = 0;
+        int writes = 0;
+        for (Map.Entry<Integer, ArrayList<Page>> e : byTable.entrySet()) {
+            if (written >= maxPages)
+                break;
+            DbFile f;
+            try {
+                f = Database.getCatalog().getDatabaseFile(e.getKey());
+            } catch (NoSuchElementException ex) {
+                continue; // the table was dropped
+            }
+            ArrayList<Page> pages = e.getValue();
+            Collections.sort(pages, PAGE_NUMBER_ORDER);
+
+            int i = 0;
+            while (i < pages.size() && written < maxPages) {
+                int j = i + 1;
+                while (j < pages.size() && j - i < maxRun && written + (j - i) < maxPages
+                        && pages.get(j).getId().pageNumber() == pages.get(j - 1).getId().pageNumber() + 1)
+                    j++;
+                writes += writeRun(f, pages.subList(i, j));
+                written += j - i;
+                i = j;
+            }
+        }
+        return new int[] { written, writes };
+    }
+
+    private static final Comparator<Page> PAGE_NUMBER_ORDER = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            int x = a.getId().pageNumber(), y = b.getId().pageNumber();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    /**
+     * Writes consecutive pages of f.
+     * @return the number of writes issued
+     */
+    private int writeRun(DbFile f, List<Page> run) throws IOException {
+        LinkedHashMap<TransactionId, ArrayList<Page>> byDirtier =
+            new LinkedHashMap<TransactionId, ArrayList<Page>>();
+        for (Page p : run) {
+            TransactionId dirtier = p.isDirty();
+            if (dirtier == null)
+                continue;
+            ArrayList<Page> pages = byDirtier.get(dirtier);
+            if (pages == null) {
+                pages = new ArrayList<Page>();
+                byDirtier.put(dirtier, pages);
+            }
+            pages.add(p);
+        }
+        LogFile log = Database.getLogFile();
+        for (Map.Entry<TransactionId, ArrayList<Page>> e : byDirtier.entrySet())
+            log.logWrites(e.getKey(), e.getValue());
+        log.force();
+
+        // keep the pages from being evicted between being marked clean and
+        // reaching the disk
+        TransactionId[] dirtiers = new TransactionId[run.size()];
+        for (int k = 0; k < dirtiers.length; k++) {
+            Page p = run.get(k);
+            m_writing.put(p.getId(), Boolean.TRUE);
+            dirtiers[k] = p.isDirty();
+            p.markDirty(false, null);
+        }
+        try {
+            int writes;
+            if (f instanceof HeapFile) {
+                ((HeapFile) f).writePages(run);
+                writes = 1;
+            } else {
+                for (Page p : run)
+                    f.writePage(p);
+                writes = run.size();
+            }
+            // what is on disk now is what a later change is undone to
+            for (Page p : run) {
+                if (p.isDirty() == null)
+                    p.setBeforeImage();
+            }
+            return writes;
+        } catch (IOException e) {
+            for (int k = 0; k < dirtiers.length; k++) {
+                if (run.get(k).isDirty() == null)
+                    run.get(k).markDirty(true, dirtiers[k]);
+            }
+            throw e;
+        } finally {
+            for (Page p : run)
+                m_writing.remove(p.getId());
         }
     }
 
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
-        cache.
+        cache. The page's HeapFile is told, as the page on
+        disk may have room the discarded copy had filled.
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        m_readAhead.cancel(pid);
+        if (m_pages.remove(pid) != null) {
+            m_bytes.addAndGet(-pageSize(pid));
+            m_prefetched.remove(pid);
+            m_policy.pageRemoved(pid);
+        }
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (f instanceof HeapFile)
+                ((HeapFile) f).pageDiscarded(pid.pageNumber());
+        } catch (NoSuchElementException e) {
+            // the table was dropped
+        }
     }
 
     /**
@@ -217,7 +618,7 @@ public class BufferPool {
         // some code goes here - done
         // not necessary for lab1 -- do this one
         try {
-            HeapPage page = (HeapPage)m_pages.get(pid);
+            Page page = m_pages.get(pid);
             if (page.isDirty() != null)
                 Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
         } catch (IOException e) {
@@ -248,8 +649,12 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The eviction policy chooses the page among the clean ones that aren't
+     * being written or pinned, passing over prefetched pages nobody has requested yet
+     * unless there is no other page.
+     * @return false if every page is dirty, so none could be evicted
      */
-    private synchronized  void evictPage() throws DbException {
+    private synchronized  boolean evictPage() throws DbException {
         // some code goes here - onde
         // not necessary for lab1 -- ? mayb
         if (m_numPages == 0)
@@ -268,16 +673,38 @@ public class BufferPool {
             }
         }*/
         
-        for (PageId p : m_pages.keySet()) {
-            if (m_pages.get(p).isDirty() == null) {
-                try {
-                    flushPage(p);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                m_pages.remove(p);
-                break;
-            }
+        PageId p = m_policy.evict(new Evictable(false));
+        if (p == null)
+            p = m_policy.evict(new Evictable(true));
+        if (p == null)
+            return false;
+        try {
+            flushPage(p);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        m_pages.remove(p);
+        m_bytes.addAndGet(-pageSize(p));
+        if (m_prefetched.remove(p) != null)
+            m_readAhead.countWaste();
+        return true;
+    }
+
+    /** The cached pages evictPage may evict. */
+    private class Evictable implements EvictionPolicy.Evictable {
+        private final boolean prefetched;
+
+        /** @param prefetched true to allow prefetched pages nobody requested */
+        Evictable(boolean prefetched) {
+            this.prefetched = prefetched;
+        }
+
+        public boolean canEvict(PageId pid) {
+            Page page = m_pages.get(pid);
+            // check m_writing second: WriteBehind adds a page to it before
+            // marking the page clean
+            return page != null && page.isDirty() == null && !m_writing.containsKey(pid)
+                && !m_pinned.containsKey(pid) && (prefetched || !m_prefetched.containsKey(pid));
         }
     }
 
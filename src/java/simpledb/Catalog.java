@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -45,6 +46,8 @@ public class Catalog {
     private ConcurrentHashMap<Integer, Item> idMap;
     private ConcurrentHashMap<String, Integer> nameMap;
     private ArrayList<Integer> idList;
+    // the indexes on each table
+    private ConcurrentHashMap<Integer, List<IndexFile>> indexMap;
     
     /**
      * Constructor.
@@ -55,6 +58,7 @@ public class Catalog {
         idMap = new ConcurrentHashMap<Integer, Item>();
         nameMap = new ConcurrentHashMap<String, Integer>();
         idList = new ArrayList<Integer>();
+        indexMap = new ConcurrentHashMap<Integer, List<IndexFile>>();
     }
 
     /**
@@ -101,6 +105,149 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Adds an index to the catalog. The index is added as a table of its
+     * own, so that the BufferPool can read its pages, and is kept up to date
+     * by the BufferPool as tuples are inserted into and deleted from the
+     * indexed table.
+     * @param index the index to add; index.getTableId() must be in the catalog
+     * @param name the name of the index
+     */
+    public void addIndex(IndexFile index, String name) {
+        addTable(index, name);
+        List<IndexFile> indexes = new CopyOnWriteArrayList<IndexFile>();
+        List<IndexFile> old = indexMap.putIfAbsent(index.getTableId(), indexes);
+        (old == null ? indexes : old).add(index);
+    }
+
+    /**
+     * Returns the indexes on the specified table; the list is empty if the
+     * table has none.
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> indexes = indexMap.get(tableid);
+        if (indexes == null)
+            return Collections.emptyList();
+        return indexes;
+    }
+
+    /**
+     * Creates a B+ tree index named name on a field of a table, like
+     * <code>CREATE INDEX name ON table (field)</code>, and adds it to the
+     * catalog. The index is stored in name.idx next to the table's file. If
+     * that file already exists, it is opened rather than built again.
+     * @param name the name of the index
+     * @param tableid the table to index
+     * @param field the name of the field to index
+     * @return the index
+     * @throws NoSuchElementException if the table or field doesn't exist
+     * @throws DbException if the table is a {@link ClusteredBTreeFile},
+     *         whose tuples have no stable RecordIds to index, or one whose
+     *         tuples have no pages to fetch, such as an {@link LsmTreeFile}
+     *         or a {@link MemoryTable}
+     */
+    public BTreeFile createIndex(String name, int tableid, String field)
+        throws DbException, IOException, TransactionAbortedException {
+        return createIndex(name, tableid, field, new ArrayList<String>());
+    }
+
+    /**
+     * Creates a covering B+ tree index, like {@link #createIndex(String, int,
+     * String)}, whose entries also hold copies of the included fields, like
+     * <code>CREATE INDEX name ON table (field) INCLUDE (included)</code>.
+     * Queries that only use those fields are answered from the index by an
+     * {@link IndexOnlyScan}. An existing index file must have been created
+     * with the same included fields.
+     * @param name the name of the index
+     * @param tableid the table to index
+     * @param field the name of the field to index
+     * @param included the names of the other fields to store in the index
+     * @return the index
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     * @throws DbException if the table is a {@link ClusteredBTreeFile}, or
+     *         one whose tuples have no pages, such as an {@link LsmTreeFile}
+     */
+    public BTreeFile createIndex(String name, int tableid, String field, List<String> included)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile table = indexedTable(tableid);
+        TupleDesc td = table.getTupleDesc();
+        int[] fields = new int[included.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = td.fieldNameToIndex(included.get(i));
+        BTreeFile index = new BTreeFile(indexFile(table, name + ".idx"), tableid,
+                td.fieldNameToIndex(field), fields, td);
+        build(index, (HeapFile) table);
+        addIndex(index, name);
+        return index;
+    }
+
+    /**
+     * Creates an extendible hash index named name on a field of a table, and
+     * adds it to the catalog, like {@link #createIndex}. The index is stored
+     * in name.hidx next to the table's file.
+     * @param name the name of the index
+     * @param tableid the table to index
+     * @param field the name of the field to index
+     * @return the index
+     * @throws NoSuchElementException if the table or field doesn't exist
+     * @throws DbException if the table is a {@link ClusteredBTreeFile}, or
+     *         one whose tuples have no pages, such as an {@link LsmTreeFile}
+     */
+    public HashIndexFile createHashIndex(String name, int tableid, String field)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile table = indexedTable(tableid);
+        HashIndexFile index = new HashIndexFile(indexFile(table, name + ".hidx"), tableid,
+                table.getTupleDesc().fieldNameToIndex(field), table.getTupleDesc());
+        build(index, (HeapFile) table);
+        addIndex(index, name);
+        return index;
+    }
+
+    /**
+     * Creates a bitmap index named name on a field of a table, and adds it
+     * to the catalog, like {@link #createIndex}. The index is saved in
+     * name.bmx next to the table's file; if that file is missing or older
+     * than the table, the index is built by scanning the table.
+     * @param name the name of the index
+     * @param tableid the table to index
+     * @param field the name of the field to index
+     * @return the index
+     * @throws NoSuchElementException if the table or field doesn't exist
+     * @throws DbException if the table isn't a {@link HeapFile}
+     */
+    public BitmapIndex createBitmapIndex(String name, int tableid, String field)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile table = indexedTable(tableid);
+        if (!(table instanceof HeapFile))
+            throw new DbException("bitmap indexes need a heap file");
+        BitmapIndex index = new BitmapIndex(indexFile(table, name + ".bmx"), (HeapFile) table,
+                table.getTupleDesc().fieldNameToIndex(field));
+        if (!index.load()) {
+            TransactionId tid = new TransactionId();
+            index.build(tid);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        addIndex(index, name);
+        return index;
+    }
+
+    private DbFile indexedTable(int tableid) throws DbException {
+        DbFile table = getDatabaseFile(tableid);
+        if (table instanceof BTreeFile)
+            throw new DbException("can't index clustered table " + getTableName(tableid));
+        if (!(table instanceof HeapFile))
+            throw new DbException("can't index " + getTableName(tableid) + ", whose tuples have no pages");
+        return table;
+    }
+
+    /** @return the file named name in the directory of table's file */
+    private static File indexFile(DbFile table, String name) {
+        File dir = null;
+        if (table instanceof HeapFile)
+            dir = ((HeapFile) table).getFile().getAbsoluteFile().getParentFile();
+        return new File(dir, name);
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -157,9 +304,58 @@ public class Catalog {
         return idMap.get(id).getName();
     }
     
-    /** Delete all tables from the catalog */
+    /**
+     * Builds index from the tuples of table, unless its file was stamped as
+     * matching the table as it is now. A stale file, e.g. one left behind
+     * by an index of the same name on another table, is emptied first.
+     */
+    private void build(AbstractIndexFile index, HeapFile table)
+        throws DbException, IOException, TransactionAbortedException {
+        if (index.matches(table.getFile()))
+            return;
+        index.truncate();
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(table.iterator(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        index.stamp(table.getFile());
+    }
+
+    /**
+     * Writes the snapshots of the {@link MemoryTable}s in the catalog; see
+     * {@link MemoryTable#checkpoint}, and stamps the B+ tree and hash
+     * indexes as matching their tables. Called at a checkpoint of the log,
+     * once every page has been written.
+     */
+    public void checkpoint() throws IOException {
+        for (Item i : idMap.values()) {
+            if (i.getFile() instanceof MemoryTable)
+                ((MemoryTable) i.getFile()).checkpoint();
+        }
+        for (List<IndexFile> indexes : indexMap.values()) {
+            for (IndexFile index : indexes) {
+                if (index instanceof AbstractIndexFile) {
+                    DbFile table = getDatabaseFile(index.getTableId());
+                    if (table instanceof HeapFile)
+                        ((AbstractIndexFile) index).stamp(((HeapFile) table).getFile());
+                }
+            }
+        }
+    }
+
+    /** Delete all tables from the catalog, closing their backing files */
     public void clear() {
         // some code goes here - done
+        for (Item i : idMap.values()) {
+            if (i.getFile() instanceof HeapFile)
+                ((HeapFile) i.getFile()).close();
+            else if (i.getFile() instanceof AbstractIndexFile)
+                ((AbstractIndexFile) i.getFile()).close();
+            else if (i.getFile() instanceof BitmapIndex)
+                ((BitmapIndex) i.getFile()).close();
+            else if (i.getFile() instanceof LsmTreeFile)
+                ((LsmTreeFile) i.getFile()).close();
+        }
+        indexMap.clear();
         idMap.clear();
         nameMap.clear();
         idList.clear();
@@ -167,6 +363,25 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <code>name (field type [pk] [index] [hash] [bitmap] [include], ...) [option ...]</code>.
+     * A field annotated with <code>index</code> gets a B+ tree index named
+     * <code>name.field</code>; see {@link #createIndex}. One annotated with
+     * <code>hash</code> gets a hash index instead (see {@link #createHashIndex}),
+     * and one annotated with <code>bitmap</code> a bitmap index (see
+     * {@link #createBitmapIndex}). Fields annotated with <code>include</code>
+     * are stored in every B+ tree index of the table, making them covering
+     * indexes.
+     * The option <code>mapped</code> backs the table with a
+     * {@link MappedHeapFile}, and <code>slotted</code> or <code>pax</code>
+     * store it in {@link PageFormat#SLOTTED} or {@link PageFormat#PAX} pages.
+     * <code>pagesize=n</code> sets the page size of the table to n bytes
+     * (or n KB with a <code>k</code> suffix, e.g. <code>pagesize=64k</code>);
+     * tables use {@link BufferPool#getPageSize()} by default.
+     * <code>clustered</code> stores the table in a {@link ClusteredBTreeFile}
+     * ordered by its <code>pk</code> field, and <code>lsm</code> in an
+     * {@link LsmTreeFile} sorted by its <code>pk</code> field, or by its
+     * first field if it has none. <code>memory</code> keeps the table in a
+     * {@link MemoryTable}, saved to <code>name.mem</code> at checkpoints.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -184,6 +399,10 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String> hashed = new ArrayList<String>();
+                ArrayList<String> bitmapped = new ArrayList<String>();
+                ArrayList<String> included = new ArrayList<String>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -195,11 +414,19 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int a = 2; a < els2.length; a++) {
+                        if (els2[a].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[a].trim().equals("index"))
+                            indexed.add(els2[0].trim());
+                        else if (els2[a].trim().equals("hash"))
+                            hashed.add(els2[0].trim());
+                        else if (els2[a].trim().equals("bitmap"))
+                            bitmapped.add(els2[0].trim());
+                        else if (els2[a].trim().equals("include"))
+                            included.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[a]);
                             System.exit(0);
                         }
                     }
@@ -207,13 +434,96 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // optional storage annotations follow the field list
+                String[] options = line.substring(line.indexOf(")") + 1).trim().toLowerCase().split("\\s+");
+                boolean mapped = false;
+                boolean clustered = false;
+                boolean lsm = false;
+                boolean memory = false;
+                PageFormat format = PageFormat.HEAP;
+                int pageSize = BufferPool.getPageSize();
+                for (String o : options) {
+                    if (o.equals(""))
+                        continue;
+                    else if (o.equals("mapped"))
+                        mapped = true;
+                    else if (o.equals("clustered"))
+                        clustered = true;
+                    else if (o.equals("lsm"))
+                        lsm = true;
+                    else if (o.equals("memory"))
+                        memory = true;
+                    else if (o.equals("slotted"))
+                        format = PageFormat.SLOTTED;
+                    else if (o.equals("pax"))
+                        format = PageFormat.PAX;
+                    else if (o.startsWith("pagesize=")) {
+                        String size = o.substring("pagesize=".length());
+                        int unit = 1;
+                        if (size.endsWith("k")) {
+                            size = size.substring(0, size.length() - 1);
+                            unit = 1024;
+                        }
+                        try {
+                            pageSize = Integer.parseInt(size) * unit;
+                        } catch (NumberFormatException e) {
+                            pageSize = 0;
+                        }
+                        if (pageSize < t.getSize() + 1) {
+                            System.out.println("Invalid page size " + o);
+                            System.exit(0);
+                        }
+                    }
+                    else {
+                        System.out.println("Unknown table option " + o);
+                        System.exit(0);
+                    }
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (clustered) {
+                    if (primaryKey.equals("")) {
+                        System.out.println("Clustered table " + name + " has no pk");
+                        System.exit(0);
+                    }
+                    tabHf = new ClusteredBTreeFile(tabFile, t, t.fieldNameToIndex(primaryKey));
+                }
+                else if (memory)
+                    tabHf = new MemoryTable(t, new File(baseFolder + "/" + name + ".mem"));
+                else if (lsm)
+                    tabHf = new LsmTreeFile(tabFile, t,
+                            primaryKey.equals("") ? 0 : t.fieldNameToIndex(primaryKey));
+                else if (mapped)
+                    tabHf = new MappedHeapFile(tabFile, t, format, pageSize);
+                else
+                    tabHf = new HeapFile(tabFile, t, format, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : indexed) {
+                    // the B+ tree indexes of a table cover its included fields
+                    ArrayList<String> covered = new ArrayList<String>(included);
+                    covered.remove(field);
+                    createIndex(name + "." + field, tabHf.getId(), field, covered);
+                    System.out.println("Added index : " + name + "." + field);
+                }
+                for (String field : hashed) {
+                    createHashIndex(name + "." + field, tabHf.getId(), field);
+                    System.out.println("Added hash index : " + name + "." + field);
+                }
+                for (String field : bitmapped) {
+                    createBitmapIndex(name + "." + field, tabHf.getId(), field);
+                    System.out.println("Added bitmap index : " + name + "." + field);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy approximates LRU without reordering pages on every request.
+ * The pages sit in a ring of frames, each with a reference bit that is set
+ * when the page is added or requested. To evict, a hand sweeps the ring,
+ * clearing set bits and stopping at the first page whose bit was already
+ * clear and that may be evicted.
+ */
+public class ClockPolicy extends EvictionPolicy {
+
+    // frames of the ring; the frames of removed pages are null until reused
+    private final ArrayList<PageId> ring = new ArrayList<PageId>();
+    private final HashMap<PageId, Integer> frames = new HashMap<PageId, Integer>();
+    private final BitSet referenced = new BitSet();
+    private final ArrayList<Integer> free = new ArrayList<Integer>();
+    private int hand = 0;
+
+    public synchronized void pageAdded(PageId pid) {
+        if (frames.containsKey(pid))
+            return;
+        int frame;
+        if (free.isEmpty()) {
+            frame = ring.size();
+            ring.add(pid);
+        } else {
+            frame = free.remove(free.size() - 1);
+            ring.set(frame, pid);
+        }
+        frames.put(pid, frame);
+        referenced.set(frame);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer frame = frames.get(pid);
+        if (frame != null)
+            referenced.set(frame);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frames.remove(pid);
+        if (frame != null)
+            clear(frame);
+    }
+
+    private void clear(int frame) {
+        ring.set(frame, null);
+        referenced.clear(frame);
+        free.add(frame);
+    }
+
+    public synchronized PageId evict(Evictable pool) {
+        // the first sweep clears every bit, so a second one finds a victim
+        // unless no page may be evicted
+        for (int i = 0; i < 2 * ring.size(); i++) {
+            if (hand >= ring.size())
+                hand = 0;
+            int frame = hand++;
+            PageId pid = ring.get(frame);
+            if (pid == null)
+                continue;
+            if (referenced.get(frame)) {
+                referenced.clear(frame);
+            } else if (pool.canEvict(pid)) {
+                frames.remove(pid);
+                clear(frame);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ClusteredBTreeFile stores a table in the leaves of a B+ tree ordered by
+ * its primary key. The leaves hold the tuples themselves instead of
+ * RecordIds, so a range scan on the key reads a run of leaves and returns
+ * the tuples in key order, and {@link #iterator} returns the whole table
+ * sorted by the key.
+ * <p>
+ * It is a DbFile like any other table, so SeqScan, Insert and Delete work
+ * on it unchanged. Keys are unique: inserting a tuple whose key is already
+ * in the table fails with a DbException. The RecordId of a tuple read from
+ * the file is its leaf and position within the leaf; it is only used to find
+ * the file again, since tuples are deleted by key.
+ *
+ * @see Catalog#loadSchema
+ */
+public class ClusteredBTreeFile extends BTreeFile {
+
+    /**
+     * Opens (or creates, if f is empty or missing) a table stored in key
+     * order.
+     *
+     * @param f the file the table is stored in
+     * @param td the schema of the table
+     * @param keyField the index of the primary key in the table's tuples
+     */
+    public ClusteredBTreeFile(File f, TupleDesc td, int keyField) {
+        super(f, td, -1, keyField);
+    }
+
+    int getKeyIndex() {
+        return getKeyField();
+    }
+
+    int getRidTable() {
+        return -1;
+    }
+
+    /** @return a copy of t, so the tree doesn't share tuples with callers */
+    Tuple toEntry(Tuple t) throws DbException {
+        TupleDesc td = getTupleDesc();
+        if (t.getTupleDesc().numFields() != td.numFields())
+            throw new DbException("tuple doesn't match the schema of the table");
+        Tuple e = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            e.setField(i, t.getField(i));
+        return e;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirty = super.deleteTuple(tid, t);
+        t.setRecordId(null);
+        return dirty;
+    }
+}
@@ -55,11 +55,19 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, new ArcPolicy());
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that evicts pages with policy, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +83,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._catalog.clear();
     }
 
 }
@@ -43,6 +43,22 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts all the tuples read from an open iterator into the file on
+     * behalf of transaction. Rather than looking for free space for each
+     * tuple, the tuples are packed into new pages appended to the file,
+     * which are logged and written out a batch at a time.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to
+     *          reflect that it is now stored in this file.
+     * @return The number of tuples inserted
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException;
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
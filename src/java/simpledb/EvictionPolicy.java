@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EvictionPolicy decides which page a BufferPool evicts when it is full.
+ * The pool tells the policy about every page it adds, every request for a
+ * cached page and every page it discards, and asks it for a victim when it
+ * needs room. The policy only proposes pages the pool says it may evict:
+ * dirty pages, pages being written and, while there are other pages,
+ * prefetched pages nobody has requested yet are kept.
+ * <p>
+ * A policy also counts the requests it sees, for its hit ratio. Each
+ * BufferPool needs its own policy object; they are not shared.
+ * <p>
+ * The pool calls a policy from many threads, so implementations must be
+ * thread-safe, and may see requests for pages that were just evicted,
+ * which they should ignore.
+ *
+ * @see LruPolicy
+ * @see ClockPolicy
+ * @see ArcPolicy
+ * @see Database#resetBufferPool(int, EvictionPolicy)
+ */
+public abstract class EvictionPolicy {
+
+    /** The pages a policy may propose as victims. */
+    public interface Evictable {
+        /** @return true if pid is cached and may be evicted now */
+        boolean canEvict(PageId pid);
+    }
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Called when pid has been read into the pool. */
+    public abstract void pageAdded(PageId pid);
+
+    /** Called when a request for pid found it in the pool. */
+    public abstract void pageAccessed(PageId pid);
+
+    /**
+     * Called when pid was removed from the pool by something other than
+     * {@link #evict}, e.g. because its transaction rolled back.
+     */
+    public abstract void pageRemoved(PageId pid);
+
+    /**
+     * Chooses a page to evict and forgets it; the caller removes it from
+     * the pool.
+     *
+     * @param pool the pages that may be evicted
+     * @return the page to evict, or null if none of the pages may be
+     */
+    public abstract PageId evict(Evictable pool);
+
+    /** @return the number of requests for a page that was in the pool */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of requests for a page that had to be read */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return the fraction of requests that found their page in the pool */
+    public double getHitRatio() {
+        long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /** Resets the hit and miss counters to zero. */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    void countHit() {
+        hits.incrementAndGet();
+    }
+
+    void countMiss() {
+        misses.incrementAndGet();
+    }
+}
@@ -14,6 +14,15 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into data, starting at
+     * offset, in the same format as {@link #serialize(DataOutputStream)}.
+     * Exactly getType().getLen() bytes are written.
+     * @param data The buffer to write to.
+     * @param offset The index in data of the first byte to write.
+     */
+    void serialize(byte[] data, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile may still have room for a
+ * tuple, so inserts don't have to walk the whole file looking for a free
+ * slot.
+ * <p>
+ * The map is kept in memory only. Pages start out as candidates; a page is
+ * marked full once an insert finds (or leaves) it without free slots, and
+ * becomes a candidate again when a tuple is deleted from it, or when the
+ * buffer pool discards it, as the version on disk may predate the inserts
+ * that filled it. So every page is examined at most once between deletes,
+ * no matter how many tuples are inserted.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final BitSet full = new BitSet();
+
+    // no page below this one is a candidate
+    private int firstCandidate = 0;
+
+    /**
+     * Returns the lowest numbered page that may have a free slot, or -1 if
+     * every one of the first numPages pages is known to be full.
+     *
+     * @param numPages the number of pages currently in the file
+     */
+    public synchronized int nextFreePage(int numPages) {
+        int pgno = full.nextClearBit(firstCandidate);
+        firstCandidate = pgno;
+        return pgno < numPages ? pgno : -1;
+    }
+
+    /** Records that page pgno has no free slots. */
+    public synchronized void markFull(int pgno) {
+        full.set(pgno);
+    }
+
+    /** Forgets everything, making every page a candidate again. */
+    public synchronized void clear() {
+        full.clear();
+        firstCandidate = 0;
+    }
+
+    /** Records that page pgno has at least one free slot. */
+    public synchronized void markFree(int pgno) {
+        full.clear(pgno);
+        if (pgno < firstCandidate)
+            firstCandidate = pgno;
+    }
+}
@@ -0,0 +1,485 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an extendible hash index on one int or string field of a
+ * table, mapping each key to the RecordIds of the tuples that hold it. It
+ * only answers equality predicates, but a lookup reads just the directory
+ * and the key's bucket, however large the index grows. Its pages are
+ * {@link HashPage}s, cached by the BufferPool.
+ * <p>
+ * Page 0 is a directory of 2^d bucket page numbers, indexed by the low d
+ * bits of a key's hash. A bucket with local depth l holds the entries whose
+ * hashes share its low l bits, and 2^(d-l) slots of the directory point at
+ * it. A full bucket is split in two by the next bit of the hash, doubling
+ * the directory first if l equals d, so only the entries of that bucket
+ * move. When the directory fills its page, or every entry of a bucket has
+ * the same hash (e.g. a frequent key), further entries go to a chain of
+ * overflow pages instead. Deletes only remove the entry; buckets are never
+ * merged.
+ * <p>
+ * Like {@link BTreeFile}, changes are made while holding the monitor of
+ * the file, and page I/O doesn't take it.
+ *
+ * @see IndexScan
+ * @see Catalog#createHashIndex
+ */
+public class HashIndexFile extends AbstractIndexFile {
+
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+
+    /**
+     * Opens (or creates, if f is empty or missing) an index on a field of
+     * a table.
+     *
+     * @param f the file the index is stored in
+     * @param tableId the id of the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     * @param tableTd the schema of the indexed table
+     */
+    public HashIndexFile(File f, int tableId, int keyField, TupleDesc tableTd) {
+        super(f);
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.td = new TupleDesc(new Type[] { tableTd.getFieldType(keyField) },
+                new String[] { tableTd.getFieldName(keyField) });
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the schema of the entries: the indexed field */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    Page createPage(PageId pid, byte[] data) {
+        return new HashPage((HashPageId) pid, data, this);
+    }
+
+    PageId pageId(int pgno) {
+        return new HashPageId(id, pgno);
+    }
+
+    String layout() {
+        return "hash " + pageSize + " " + keyField;
+    }
+
+    /** Writes a directory of depth 0 and one empty bucket if the file is empty. */
+    private synchronized void init() throws IOException {
+        if (file.length() > 0)
+            return;
+        byte[] dir = new byte[pageSize];
+        dir[0] = HashPage.DIRECTORY;
+        Type.writeInt(dir, 5, 1);
+        write(0, dir);
+        write(1, HashPage.createEmptyBucketData(pageSize));
+    }
+
+    private HashPage getPage(TransactionId tid, int pgno, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(id, pgno), perm);
+    }
+
+    /**
+     * Appends an empty bucket with the given local depth to the file,
+     * pinned like {@link #pinPage}. The page is clean; the caller marks it
+     * dirty once it has filled it.
+     */
+    private synchronized HashPage newBucket(TransactionId tid, int depth, List<PageId> pins)
+        throws DbException, IOException, TransactionAbortedException {
+        int pgno = numPages();
+        write(pgno, HashPage.createEmptyBucketData(pageSize));
+        HashPage p = (HashPage) pinPage(tid, pgno, Permissions.READ_WRITE, pins);
+        synchronized (p) {
+            p.setDepth(depth);
+        }
+        return p;
+    }
+
+    /**
+     * Hashes a key, mixing its bits so that consecutive int keys spread
+     * over the low bits the directory is indexed by.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** @return the number of entries a bucket page holds */
+    int bucketCapacity() {
+        return HashPage.bucketCapacity(pageSize, td);
+    }
+
+    /** @return the entry stored in the index for tuple t of the table */
+    Tuple toEntry(Tuple t) throws DbException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no RecordId");
+        Tuple e = new Tuple(td);
+        e.setField(0, t.getField(keyField));
+        e.setRecordId(t.getRecordId());
+        return e;
+    }
+
+    private static boolean sameEntry(Tuple a, Tuple b) {
+        return a.getField(0).equals(b.getField(0)) && a.getRecordId().equals(b.getRecordId());
+    }
+
+    /** @return the bucket page and its overflow pages, in chain order, pinned */
+    private ArrayList<HashPage> chain(TransactionId tid, int pgno, Permissions perm,
+            List<PageId> pins) throws DbException, TransactionAbortedException {
+        ArrayList<HashPage> pages = new ArrayList<HashPage>();
+        while (pgno != 0) {
+            HashPage p = (HashPage) pinPage(tid, pgno, perm, pins);
+            pages.add(p);
+            pgno = p.getNext();
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        return insertEntry(tid, toEntry(t));
+    }
+
+    /**
+     * Adds an entry, splitting or chaining buckets as needed. Like
+     * {@link BTreeFile#insertEntry}, each page is changed while holding its
+     * monitor and marked dirty once the change is complete, and pages are
+     * read before taking a monitor and pinned until the entry is in.
+     */
+    synchronized ArrayList<Page> insertEntry(TransactionId tid, Tuple e)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<PageId> pins = new ArrayList<PageId>();
+        try {
+            return insertEntry(tid, e, pins);
+        } finally {
+            unpinAll(pins);
+        }
+    }
+
+    private ArrayList<Page> insertEntry(TransactionId tid, Tuple e, List<PageId> pins)
+        throws DbException, IOException, TransactionAbortedException {
+        init();
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        HashPage dir = (HashPage) pinPage(tid, 0, Permissions.READ_WRITE, pins);
+        int h = hash(e.getField(0));
+        int cap = bucketCapacity();
+        while (true) {
+            int slot = h & ((1 << dir.getDepth()) - 1);
+            ArrayList<HashPage> pages = chain(tid, dir.directory.get(slot), Permissions.READ_WRITE, pins);
+            boolean sameHash = true;
+            for (HashPage p : pages) {
+                for (Tuple x : p.entries) {
+                    if (sameEntry(x, e))
+                        throw new DbException("duplicate entry " + e);
+                    sameHash &= hash(x.getField(0)) == h;
+                }
+            }
+            for (HashPage p : pages) {
+                if (p.entries.size() < cap) {
+                    synchronized (p) {
+                        p.entries.add(e);
+                        p.markDirty(true, tid);
+                    }
+                    dirty.add(p);
+                    return dirty;
+                }
+            }
+
+            HashPage bucket = pages.get(0);
+            boolean full = bucket.getDepth() == dir.getDepth()
+                && dir.getDepth() == HashPage.maxDepth(pageSize);
+            if (sameHash || full) {
+                // splitting can't separate the entries; chain an overflow page
+                HashPage last = pages.get(pages.size() - 1);
+                HashPage o = newBucket(tid, bucket.getDepth(), pins);
+                synchronized (o) {
+                    o.entries.add(e);
+                    o.markDirty(true, tid);
+                }
+                synchronized (last) {
+                    last.setNext(o.getId().pageNumber());
+                    last.markDirty(true, tid);
+                }
+                dirty.add(last);
+                dirty.add(o);
+                return dirty;
+            }
+
+            if (bucket.getDepth() == dir.getDepth()) {
+                synchronized (dir) {
+                    dir.directory.addAll(new ArrayList<Integer>(dir.directory));
+                    dir.setDepth(dir.getDepth() + 1);
+                    dir.markDirty(true, tid);
+                }
+                dirty.add(dir);
+            }
+            split(tid, dir, pages, dirty, pins);
+        }
+    }
+
+    /**
+     * Splits the bucket whose chain is pages by the next bit of the hash,
+     * moving the entries with the bit set to a new bucket and pointing half
+     * of the bucket's directory slots at it.
+     */
+    private void split(TransactionId tid, HashPage dir, ArrayList<HashPage> pages,
+            ArrayList<Page> dirty, List<PageId> pins) throws DbException, IOException, TransactionAbortedException {
+        HashPage bucket = pages.get(0);
+        int bit = bucket.getDepth();
+        ArrayList<Tuple> stay = new ArrayList<Tuple>();
+        ArrayList<Tuple> move = new ArrayList<Tuple>();
+        for (HashPage p : pages) {
+            for (Tuple x : p.entries)
+                ((hash(x.getField(0)) >>> bit & 1) == 0 ? stay : move).add(x);
+        }
+
+        // the moving entries get a chain of their own, filled before the
+        // old chain gives them up
+        int cap = bucketCapacity();
+        ArrayList<HashPage> image = new ArrayList<HashPage>();
+        int n = Math.max(1, (move.size() + cap - 1) / cap);
+        while (image.size() < n)
+            image.add(newBucket(tid, bit + 1, pins));
+        for (int i = 0; i < image.size(); i++) {
+            HashPage p = image.get(i);
+            synchronized (p) {
+                p.entries.addAll(move.subList(i * cap, Math.min(move.size(), (i + 1) * cap)));
+                if (i + 1 < image.size())
+                    p.setNext(image.get(i + 1).getId().pageNumber());
+                p.markDirty(true, tid);
+            }
+            dirty.add(p);
+        }
+
+        // the staying entries fit in the old chain
+        for (int i = 0; i < pages.size(); i++) {
+            HashPage p = pages.get(i);
+            synchronized (p) {
+                p.entries.clear();
+                p.entries.addAll(stay.subList(Math.min(stay.size(), i * cap),
+                        Math.min(stay.size(), (i + 1) * cap)));
+                p.setDepth(bit + 1);
+                p.markDirty(true, tid);
+            }
+            dirty.add(p);
+        }
+
+        int from = bucket.getId().pageNumber(), to = image.get(0).getId().pageNumber();
+        synchronized (dir) {
+            for (int i = 0; i < dir.directory.size(); i++) {
+                if (dir.directory.get(i) == from && (i >>> bit & 1) == 1)
+                    dir.directory.set(i, to);
+            }
+            dir.markDirty(true, tid);
+        }
+        dirty.add(dir);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        return deleteEntry(tid, toEntry(t));
+    }
+
+    synchronized ArrayList<Page> deleteEntry(TransactionId tid, Tuple e)
+        throws DbException, IOException, TransactionAbortedException {
+        init();
+        HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+        int slot = hash(e.getField(0)) & ((1 << dir.getDepth()) - 1);
+        // reading the rest of the chain mustn't evict the page changed
+        ArrayList<PageId> pins = new ArrayList<PageId>();
+        try {
+            for (HashPage p : chain(tid, dir.directory.get(slot), Permissions.READ_WRITE, pins)) {
+                for (int i = 0; i < p.entries.size(); i++) {
+                    if (sameEntry(p.entries.get(i), e)) {
+                        synchronized (p) {
+                            p.entries.remove(i);
+                            p.markDirty(true, tid);
+                        }
+                        ArrayList<Page> dirty = new ArrayList<Page>();
+                        dirty.add(p);
+                        return dirty;
+                    }
+                }
+            }
+        } finally {
+            unpinAll(pins);
+        }
+        throw new DbException("entry " + e + " is not in the index");
+    }
+
+    /**
+     * Builds the index from the tuples of the table read by tableTuples,
+     * sizing the directory for them up front and writing the buckets
+     * straight to disk. The index must be empty.
+     *
+     * @return the number of entries added
+     */
+    public synchronized int bulkLoad(DbFileIterator tableTuples)
+        throws DbException, IOException, TransactionAbortedException {
+        if (numPages() > 2)
+            throw new DbException("index is not empty");
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        tableTuples.open();
+        while (tableTuples.hasNext())
+            entries.add(toEntry(tableTuples.next()));
+        tableTuples.close();
+
+        // enough buckets to leave a quarter of each one free for inserts
+        int cap = bucketCapacity();
+        int depth = 0;
+        while (depth < HashPage.maxDepth(pageSize) && (1L << depth) * cap * 3 / 4 < entries.size())
+            depth++;
+        ArrayList<ArrayList<Tuple>> buckets = new ArrayList<ArrayList<Tuple>>();
+        for (int i = 0; i < (1 << depth); i++)
+            buckets.add(new ArrayList<Tuple>());
+        for (Tuple e : entries)
+            buckets.get(hash(e.getField(0)) & ((1 << depth) - 1)).add(e);
+
+        for (int i = 0; i < numPages(); i++)
+            Database.getBufferPool().discardPage(new HashPageId(id, i));
+        getChannel().truncate(0);
+
+        HashPage dir = new HashPage(new HashPageId(id, 0), new byte[pageSize], this);
+        dir.reset(HashPage.DIRECTORY);
+        dir.setDepth(depth);
+        int pgno = 1;
+        for (ArrayList<Tuple> b : buckets) {
+            dir.directory.add(pgno);
+            int n = Math.max(1, (b.size() + cap - 1) / cap);
+            for (int j = 0; j < n; j++) {
+                HashPage p = new HashPage(new HashPageId(id, pgno),
+                        HashPage.createEmptyBucketData(pageSize), this);
+                p.setDepth(depth);
+                p.entries.addAll(b.subList(j * cap, Math.min(b.size(), (j + 1) * cap)));
+                p.setNext(j + 1 < n ? pgno + 1 : 0);
+                write(pgno, p.getPageData());
+                pgno++;
+            }
+        }
+        write(0, dir.getPageData());
+        return entries.size();
+    }
+
+    /** @return the global depth of the directory */
+    public int getDepth(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        init();
+        return getPage(tid, 0, Permissions.READ_ONLY).getDepth();
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIterator(tid, null);
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value) {
+        if (!supports(op))
+            throw new UnsupportedOperationException("hash index can't answer " + op);
+        return new HashIterator(tid, value);
+    }
+
+    /** @return the first page of the bucket key belongs in */
+    private synchronized int bucketOf(TransactionId tid, Field key)
+        throws DbException, IOException, TransactionAbortedException {
+        init();
+        HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+        return dir.directory.get(hash(key) & ((1 << dir.getDepth()) - 1));
+    }
+
+    /**
+     * Copies the entries of page pgno whose key equals key (all of them if
+     * key is null) into out.
+     *
+     * @return the page number of the overflow page, or 0
+     */
+    private synchronized int readBucket(TransactionId tid, int pgno, Field key, List<Tuple> out)
+        throws DbException, TransactionAbortedException {
+        HashPage p = getPage(tid, pgno, Permissions.READ_ONLY);
+        for (Tuple e : p.entries) {
+            if (key == null || e.getField(0).equals(key))
+                out.add(e);
+        }
+        return p.getNext();
+    }
+
+    /**
+     * Reads the entries of a key's bucket chain a page at a time, or of
+     * every bucket page in file order if there is no key.
+     */
+    private class HashIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Field key;
+        private final ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+        private int pos;
+        private int nextPage;
+        private int lastPage;
+        private boolean open;
+
+        HashIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            buffer.clear();
+            pos = 0;
+            try {
+                nextPage = key == null ? 1 : bucketOf(tid, key);
+                lastPage = numPages() - 1;
+            } catch (IOException e) {
+                throw new DbException("error reading index: " + e);
+            }
+            open = true;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return null;
+            while (pos == buffer.size()) {
+                if (nextPage == 0)
+                    return null;
+                buffer.clear();
+                pos = 0;
+                int next = readBucket(tid, nextPage, key, buffer);
+                if (key == null)
+                    nextPage = nextPage < lastPage ? nextPage + 1 : 0;
+                else
+                    nextPage = next;
+            }
+            return buffer.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            open = false;
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashPage is a page of a {@link HashIndexFile}: its directory or a bucket.
+ * Every page starts with a one byte kind.
+ * <p>
+ * The directory (page 0) holds the global depth d followed by the 2^d
+ * page numbers of the buckets, indexed by the low d bits of a key's hash.
+ * A bucket holds its local depth, the number of entries, the page number
+ * of its overflow page (0 if it has none) and the entries, each a key
+ * followed by the page and slot of its RecordId.
+ * <p>
+ * The page is decoded when it is read, and encoded again by
+ * {@link #getPageData}.
+ *
+ * @see HashIndexFile
+ */
+public class HashPage implements Page {
+
+    static final byte DIRECTORY = 0;
+    static final byte BUCKET = 1;
+
+    // kind, local depth, count, next
+    private static final int HEADER_SIZE = 13;
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private final int ridTable;
+    private final int pageSize;
+
+    private byte kind;
+    // the global depth of the directory, or the local depth of a bucket
+    private int depth;
+    private int next;
+    final ArrayList<Integer> directory = new ArrayList<Integer>();
+    final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+
+    private byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    /**
+     * Creates a page of an index in the catalog from bytes read from disk.
+     */
+    public HashPage(HashPageId id, byte[] data) {
+        this(id, data, (HashIndexFile) Database.getCatalog().getDatabaseFile(id.getTableId()));
+    }
+
+    HashPage(HashPageId id, byte[] data, HashIndexFile file) {
+        this(id, data, file.getTupleDesc(), file.getTableId());
+    }
+
+    private HashPage(HashPageId id, byte[] data, TupleDesc td, int ridTable) {
+        this.pid = id;
+        this.td = td;
+        this.ridTable = ridTable;
+        this.pageSize = data.length;
+        oldData = data;
+
+        kind = data[0];
+        depth = Type.readInt(data, 1);
+        if (kind == DIRECTORY) {
+            for (int i = 0; i < (1 << depth); i++)
+                directory.add(Type.readInt(data, 5 + 4 * i));
+            return;
+        }
+        int count = Type.readInt(data, 5);
+        next = Type.readInt(data, 9);
+        Type keyType = td.getFieldType(0);
+        int off = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, keyType.parse(data, off));
+            off += keyType.getLen();
+            t.setRecordId(new RecordId(new HeapPageId(ridTable, Type.readInt(data, off)),
+                    Type.readInt(data, off + 4)));
+            off += 8;
+            entries.add(t);
+        }
+    }
+
+    /** @return the data of an empty bucket of pageSize bytes */
+    static byte[] createEmptyBucketData(int pageSize) {
+        byte[] data = new byte[pageSize];
+        data[0] = BUCKET;
+        return data;
+    }
+
+    /** @return the number of entries a bucket of pageSize bytes holds */
+    static int bucketCapacity(int pageSize, TupleDesc td) {
+        return (pageSize - HEADER_SIZE) / (td.getSize() + 8);
+    }
+
+    /** @return the largest global depth a directory of pageSize bytes holds */
+    static int maxDepth(int pageSize) {
+        int d = 0;
+        while (5 + 4 * (2 << d) <= pageSize)
+            d++;
+        return d;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /** Turns this page into an empty page of the given kind. */
+    void reset(byte kind) {
+        this.kind = kind;
+        depth = 0;
+        next = 0;
+        directory.clear();
+        entries.clear();
+    }
+
+    /** @return the global depth of the directory, or a bucket's local depth */
+    int getDepth() {
+        return depth;
+    }
+
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /** @return the page number of the overflow page, or 0 if there is none */
+    int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * Encodes the page. Like {@link BTreePage#getPageData}, this takes the
+     * monitor the HashIndexFile holds while it modifies the page, so it
+     * never sees half a change.
+     */
+    public synchronized byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        data[0] = kind;
+        Type.writeInt(data, 1, depth);
+        if (kind == DIRECTORY) {
+            Object[] ds = directory.toArray();
+            for (int i = 0; i < ds.length && 5 + 4 * i + 4 <= pageSize; i++) {
+                if (ds[i] != null)
+                    Type.writeInt(data, 5 + 4 * i, (Integer) ds[i]);
+            }
+            return data;
+        }
+        Object[] es = entries.toArray();
+        int count = 0;
+        int off = HEADER_SIZE;
+        for (Object o : es) {
+            Tuple t = (Tuple) o;
+            if (t == null || off + td.getSize() + 8 > pageSize)
+                continue;
+            t.getField(0).serialize(data, off);
+            off += td.getSize();
+            RecordId rid = t.getRecordId();
+            Type.writeInt(data, off, rid.getPageId().pageNumber());
+            Type.writeInt(data, off + 4, rid.tupleno());
+            off += 8;
+            count++;
+        }
+        Type.writeInt(data, 5, count);
+        Type.writeInt(data, 9, next);
+        return data;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public synchronized HashPage getBeforeImage() {
+        return new HashPage(pid, oldData, td, ridTable);
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
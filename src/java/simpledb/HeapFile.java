@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -8,9 +10,11 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A HeapFile can instead be laid out in one of the other
+ * {@link PageFormat}s, which is fixed when the file is created.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see simpledb.PageFormat
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
@@ -18,6 +22,19 @@ public class HeapFile implements DbFile {
     private File file;
     private TupleDesc tupleDesc;
     private int id;
+    private final PageFormat format;
+    private final int pageSize;
+
+    // opened lazily on first page I/O and shared by all threads; positional
+    // reads and writes on a FileChannel don't touch the channel position
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    private final ZoneMap zoneMap;
+
+    // number of pages insertTuples logs and writes at a time
+    static final int APPEND_BATCH_PAGES = 256;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,10 +44,43 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.HEAP);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * laid out in the given format.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages of f.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * laid out in the given format and are pageSize bytes long.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages of f.
+     * @param pageSize
+     *            the number of bytes per page of f.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
         // some code goes here - done
         file = f;
         tupleDesc = td;
         id = f.getAbsoluteFile().hashCode();
+        this.format = format;
+        this.pageSize = pageSize;
+        zoneMap = new ZoneMap(f, td);
     }
 
     /**
@@ -57,6 +107,20 @@ public class HeapFile implements DbFile {
         return id;
     }
 
+    /**
+     * Returns the layout of the pages of this file.
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the per-page ranges of the int columns of this file.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
@@ -67,20 +131,53 @@ public class HeapFile implements DbFile {
         return tupleDesc;
     }
 
+    /**
+     * Returns the channel backing this file, opening it if this is the first
+     * page I/O since construction or the last {@link #close}.
+     */
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Closes the file handle backing this HeapFile and saves its ZoneMap.
+     * The handle is reopened on the next page read or write, so it is safe
+     * to call this on a table that is still referenced.
+     */
+    public synchronized void close() {
+        zoneMap.save();
+        if (channel == null)
+            return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+        channel = null;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here - done?
-        HeapPage ret = null;
+        Page ret = null;
         try {
-            RandomAccessFile randomAccess = new RandomAccessFile(file, "r");
-            int offset = pid.pageNumber() * 4096;
-            randomAccess.seek(offset);
-            byte[] page = new byte[4096];
-            randomAccess.read(page, 0, 4096);
-            randomAccess.close();
-            
+            long offset = (long) pid.pageNumber() * pageSize;
+            byte[] page = new byte[pageSize];
+            ByteBuffer buf = ByteBuffer.wrap(page);
+            FileChannel ch = getChannel();
+            // a short read leaves the tail of the page zeroed
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+
             HeapPageId id = (HeapPageId) pid;
-            ret = new HeapPage(id, page);
+            ret = format.createPage(id, page);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -91,21 +188,76 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here -d
         // not necessary for lab1 - nice - damn
-        RandomAccessFile randomAccess = new RandomAccessFile(file, "rw");
-        int offset = page.getId().pageNumber() * 4096;
-        byte[] pageData = page.getPageData();
-        randomAccess.seek(offset);
-        randomAccess.write(pageData);
+        long offset = (long) page.getId().pageNumber() * pageSize;
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
         
         page.markDirty(false, null);
     }
 
+    /**
+     * Writes pages with consecutive page numbers to disk with a single
+     * gathering write. Unlike {@link #writePage}, this leaves the dirty
+     * flags of the pages alone.
+     *
+     * @param pages pages of this file, in page number order, without gaps
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        ByteBuffer[] bufs = new ByteBuffer[pages.size()];
+        long remaining = 0;
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(pages.get(i).getPageData());
+            remaining += bufs[i].remaining();
+        }
+        long offset = (long) pages.get(0).getId().pageNumber() * pageSize;
+        FileChannel ch = getChannel();
+        // gathering writes use the channel position, which nothing else does
+        synchronized (ch) {
+            ch.position(offset);
+            while (remaining > 0)
+                remaining -= ch.write(bufs);
+        }
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // some code goes here - done
-        return (int)(file.length() / 4096);
+        return (int)(file.length() / pageSize);
+    }
+
+    /**
+     * Cuts the file down to its first numPages pages. The caller must make
+     * sure the buffer pool holds none of the pages past the new end.
+     *
+     * @see HeapFileCompactor
+     */
+    void truncate(int numPages) throws IOException {
+        getChannel().truncate((long) numPages * pageSize);
+        freeSpace.clear();
+        zoneMap.clear();
+    }
+
+    /**
+     * Called when the buffer pool drops page pgno without writing it, e.g.
+     * because its transaction rolled back. The page on disk may have free
+     * slots that the dropped copy had filled, so the next insert examines
+     * it again.
+     */
+    void pageDiscarded(int pgno) {
+        freeSpace.markFree(pgno);
+    }
+
+    /**
+     * Returns the number of bytes per page of this HeapFile.
+     */
+    public int getPageSize() {
+        return pageSize;
     }
 
     // see DbFile.java for javadocs
@@ -115,26 +267,98 @@ public class HeapFile implements DbFile {
         // not necessary for lab1 - nice
                 ArrayList<Page> pagesList = new ArrayList<Page>();
                 HeapPageId pageid;
-                HeapPage page;
-                for (int i = 0; i < numPages(); i++) { // find empty slot
-                    pageid = new HeapPageId(getId(), i);
-                    page = (HeapPage)Database.getBufferPool().getPage(tid, pageid, Permissions.READ_WRITE);
+                TuplePage page;
+                int pgno;
+                while ((pgno = freeSpace.nextFreePage(numPages())) >= 0) { // find empty slot
+                    pageid = new HeapPageId(getId(), pgno);
+                    page = (TuplePage)Database.getBufferPool().getPage(tid, pageid, Permissions.READ_WRITE);
                     if (page.getNumEmptySlots() > 0) {
                         page.insertTuple(t);
                         page.markDirty(true, tid);
+                        zoneMap.add(pgno, t);
+                        if (page.getNumEmptySlots() == 0)
+                            freeSpace.markFull(pgno);
                         pagesList.add(page);
                         return pagesList;
                     }
+                    freeSpace.markFull(pgno);
                 }
                 pageid = new HeapPageId(getId(), numPages());
-                page = new HeapPage(pageid, HeapPage.createEmptyPageData());
+                page = format.createPage(pageid, HeapPage.createEmptyPageData(pageSize));
                 writePage(page); // no empty slots found
-                page = (HeapPage)Database.getBufferPool().getPage(tid, pageid, Permissions.READ_WRITE);
+                page = (TuplePage)Database.getBufferPool().getPage(tid, pageid, Permissions.READ_WRITE);
                 page.insertTuple(t);
+                page.markDirty(true, tid);
+                pgno = pageid.pageNumber();
+                zoneMap.emptyPage(pgno);
+                zoneMap.add(pgno, t);
                 pagesList.add(page);
                 return pagesList;
     }
 
+    // see DbFile.java for javadocs
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> batch = new ArrayList<Page>();
+        int pgno = numPages();
+        TuplePage page = null;
+        int count = 0;
+
+        // top off the last page through the buffer pool first, so repeated
+        // bulk inserts don't leave a partly empty page behind each time
+        if (pgno > 0 && tuples.hasNext()) {
+            HeapPageId tail = new HeapPageId(getId(), pgno - 1);
+            page = (TuplePage) Database.getBufferPool().getPage(tid, tail, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                while (page.getNumEmptySlots() > 0 && tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    page.insertTuple(t);
+                    zoneMap.add(pgno - 1, t);
+                    count++;
+                }
+                page.markDirty(true, tid);
+                if (page.getNumEmptySlots() == 0)
+                    freeSpace.markFull(pgno - 1);
+            }
+            page = null;
+        }
+
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (page == null || page.getNumEmptySlots() == 0) {
+                if (batch.size() == APPEND_BATCH_PAGES) {
+                    appendPages(tid, batch);
+                    batch.clear();
+                }
+                zoneMap.emptyPage(pgno);
+                page = format.createPage(new HeapPageId(getId(), pgno++), HeapPage.createEmptyPageData(pageSize));
+                batch.add(page);
+            }
+            page.insertTuple(t);
+            zoneMap.add(pgno - 1, t);
+            count++;
+        }
+        appendPages(tid, batch);
+        return count;
+    }
+
+    /**
+     * Logs and writes out consecutive new pages at the end of the file with
+     * a single write. All but the last page are assumed full.
+     */
+    private void appendPages(TransactionId tid, List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        Database.getLogFile().logWrites(tid, pages);
+        writePages(pages);
+
+        for (int i = 0; i < pages.size() - 1; i++)
+            freeSpace.markFull(pages.get(i).getId().pageNumber());
+        Page last = pages.get(pages.size() - 1);
+        if (((TuplePage) last).getNumEmptySlots() == 0)
+            freeSpace.markFull(last.getId().pageNumber());
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -142,9 +366,11 @@ public class HeapFile implements DbFile {
         // not necessary for lab1 - nice
                 ArrayList<Page> deleteList = new ArrayList<Page>();
                 if (t.getRecordId() != null && t.getRecordId().getPageId().getTableId() == getId()) {
-                    HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+                    TuplePage page = (TuplePage)Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
                     page.deleteTuple(t);
                     page.markDirty(true, tid);
+                    zoneMap.remove(page, t);
+                    freeSpace.markFree(page.getId().pageNumber());
                     deleteList.add(page);
                     return deleteList;
                 }
@@ -155,7 +381,38 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here - done
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, false);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator}, for a caller that reads
+     * the whole file front to back. The pages ahead of the iterator are
+     * prefetched into the BufferPool in the background.
+     *
+     * @see ReadAhead
+     */
+    public DbFileIterator sequentialIterator(TransactionId tid) {
+        return new HeapFileIterator(this, tid, true, null);
+    }
+
+    /**
+     * Returns a sequential iterator that skips the pages whose ZoneMap
+     * ranges show that none of their tuples can satisfy all of preds. The
+     * tuples of the pages it does read are returned unfiltered. preds may
+     * still be added to until the iterator is opened.
+     *
+     * @see #sequentialIterator(TransactionId)
+     */
+    public DbFileIterator sequentialIterator(TransactionId tid, List<Predicate> preds) {
+        return new HeapFileIterator(this, tid, true, preds);
+    }
+
+    /**
+     * @return the number of pages iterator, which must have come from
+     *         {@link #sequentialIterator(TransactionId, List)}, has skipped
+     */
+    static int getPagesSkipped(DbFileIterator iterator) {
+        return ((HeapFileIterator) iterator).skipped;
     }
     
     private class HeapFileIterator implements DbFileIterator {
@@ -164,16 +421,46 @@ public class HeapFile implements DbFile {
         private TransactionId tid;
         private int index;
         private Iterator<Tuple> itrTuple;
+        private final boolean sequential;
+        // first page not yet handed to read-ahead
+        private int prefetched;
+        // pushed down predicates, or null
+        private final List<Predicate> preds;
+        private int skipped;
         
-        public HeapFileIterator(HeapFile hf, TransactionId t) {
+        public HeapFileIterator(HeapFile hf, TransactionId t, boolean seq, List<Predicate> preds) {
             file = hf;
             tid = t;
             index = 0;
+            sequential = seq;
+            this.preds = preds;
+        }
+        
+        public HeapFileIterator(HeapFile hf, TransactionId t, boolean seq) {
+            this(hf, t, seq, null);
         }
         
         public void open() throws DbException, TransactionAbortedException {
+            ZoneMap zm = file.getZoneMap();
+            if (preds != null && !preds.isEmpty()) {
+                int numPages = file.numPages();
+                while (index < numPages && !zm.mayMatch(index, preds)) {
+                    index++;
+                    skipped++;
+                    zm.countSkipped();
+                }
+                if (index >= numPages && numPages > 0) {
+                    itrTuple = Collections.<Tuple>emptyList().iterator();
+                    return;
+                }
+            }
+            if (sequential)
+                readAhead();
             HeapPageId hpid = new HeapPageId(file.getId(), index);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
+            // learn the ranges of pages written without the map's knowledge
+            if (zm.isEnabled() && index < file.numPages() && !zm.isKnown(index))
+                zm.summarize(page);
             itrTuple = page.iterator();
         }
         
@@ -196,6 +483,18 @@ public class HeapFile implements DbFile {
             throw new NoSuchElementException();
         }
         
+        private void readAhead() {
+            ReadAhead ra = Database.getBufferPool().getReadAhead();
+            ZoneMap zm = file.getZoneMap();
+            boolean filtered = preds != null && !preds.isEmpty();
+            int end = Math.min(file.numPages(), index + 1 + ra.getWindow(file.getPageSize()));
+            for (prefetched = Math.max(prefetched, index + 1); prefetched < end; prefetched++) {
+                // open() will skip the pages the map rules out; don't read them
+                if (!filtered || zm.mayMatch(prefetched, preds))
+                    ra.prefetch(new HeapPageId(file.getId(), prefetched));
+            }
+        }
+        
         public void close() {
             itrTuple = null;
         }
@@ -206,6 +505,8 @@ public class HeapFile implements DbFile {
         
         public void rewind() throws DbException, TransactionAbortedException {
             close();
+            index = 0;
+            prefetched = 0;
             open();
         }
     }
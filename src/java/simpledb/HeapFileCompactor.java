@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HeapFileCompactor packs the tuples of a HeapFile into as few pages as
+ * possible and truncates the pages it empties off the end of the file, so
+ * that scans no longer read the half-empty pages deletes leave behind.
+ * <p>
+ * Compaction runs online: pages are read and modified through the
+ * BufferPool on behalf of a transaction, like any other update. Tuples are
+ * moved from the last pages of the file into free slots of the first ones.
+ * Every modified page is logged to the LogFile before it is written back,
+ * in rounds so that the dirty pages fit in the buffer pool. Moved tuples
+ * get new RecordIds, which are updated in the indexes on the file; the
+ * index pages this changes are logged and written in the same rounds. The
+ * ZoneMap ranges of the pages are kept up to date as tuples move.
+ *
+ * @see HeapFile
+ */
+public class HeapFileCompactor {
+
+    /** The outcome of compacting a file. */
+    public static class Result {
+        /** The number of pages of the file before compaction. */
+        public final int pagesBefore;
+        /** The number of pages of the file after compaction. */
+        public final int pagesAfter;
+        /** The number of tuples moved to another page. */
+        public final int tuplesMoved;
+
+        Result(int pagesBefore, int pagesAfter, int tuplesMoved) {
+            this.pagesBefore = pagesBefore;
+            this.pagesAfter = pagesAfter;
+            this.tuplesMoved = tuplesMoved;
+        }
+
+        public String toString() {
+            return pagesBefore + " pages before, " + pagesAfter + " pages after, "
+                + tuplesMoved + " tuples moved";
+        }
+    }
+
+    /**
+     * Compacts hf on behalf of transaction tid. hf must be in the catalog.
+     *
+     * @return the page counts before and after compaction
+     */
+    public static Result compact(TransactionId tid, HeapFile hf)
+        throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int pagesBefore = hf.numPages();
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(hf.getId());
+        ZoneMap zm = hf.getZoneMap();
+        // flush in rounds that leave room in the pool for the pages in use
+        int maxDirty = Math.max(2, (int) (bp.getCapacity() / hf.getPageSize() / 2));
+        LinkedHashMap<PageId, Page> dirty = new LinkedHashMap<PageId, Page>();
+
+        int moved = 0;
+        int lo = 0;
+        int hi = pagesBefore - 1;
+        TuplePage dst = null;
+        while (lo < hi) {
+            TuplePage src = getPage(tid, hf, hi);
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            Iterator<Tuple> it = src.iterator();
+            while (it.hasNext())
+                tuples.add(it.next());
+
+            for (Tuple t : tuples) {
+                while (lo < hi && (dst == null || dst.getNumEmptySlots() == 0)) {
+                    dst = getPage(tid, hf, lo);
+                    if (dst.getNumEmptySlots() == 0)
+                        lo++;
+                }
+                if (lo >= hi)
+                    break;
+
+                Tuple copy = new Tuple(t.getTupleDesc());
+                for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                    copy.setField(i, t.getField(i));
+                // widen the range first, so that a concurrent filtered scan
+                // never skips the page while it holds the tuple
+                zm.add(dst.getId().pageNumber(), copy);
+                dst.insertTuple(copy);
+                for (IndexFile index : indexes) {
+                    for (Page p : index.deleteTuple(tid, t))
+                        dirty.put(p.getId(), p);
+                    for (Page p : index.insertTuple(tid, copy))
+                        dirty.put(p.getId(), p);
+                }
+                src.deleteTuple(t);
+                zm.remove(src, t);
+                dst.markDirty(true, tid);
+                src.markDirty(true, tid);
+                dirty.put(dst.getId(), dst);
+                dirty.put(src.getId(), src);
+                moved++;
+
+                if (dirty.size() >= maxDirty) {
+                    flush(tid, hf, indexes, dirty);
+                    // the pages may be evicted now; fetch them again
+                    dst = null;
+                    src = getPage(tid, hf, hi);
+                }
+            }
+            if (lo < hi)
+                hi--;
+        }
+        flush(tid, hf, indexes, dirty);
+
+        // drop the empty pages at the end, keeping at least one page
+        int pagesAfter = pagesBefore;
+        while (pagesAfter > 1 && isEmpty(getPage(tid, hf, pagesAfter - 1)))
+            pagesAfter--;
+        for (int pgno = pagesAfter; pgno < pagesBefore; pgno++)
+            bp.discardPage(new HeapPageId(hf.getId(), pgno));
+        hf.truncate(pagesAfter);
+
+        return new Result(pagesBefore, pagesAfter, moved);
+    }
+
+    private static TuplePage getPage(TransactionId tid, HeapFile hf, int pgno)
+        throws DbException, TransactionAbortedException {
+        return (TuplePage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), pgno), Permissions.READ_WRITE);
+    }
+
+    private static boolean isEmpty(TuplePage page) {
+        return !page.iterator().hasNext();
+    }
+
+    /**
+     * Logs the changes to the dirty pages of hf and its indexes as a unit,
+     * forces the log, and then writes the pages back to their files.
+     */
+    private static void flush(TransactionId tid, HeapFile hf, List<IndexFile> indexes,
+            LinkedHashMap<PageId, Page> dirty) throws IOException {
+        if (dirty.isEmpty())
+            return;
+        LogFile log = Database.getLogFile();
+        ArrayList<Page> pages = new ArrayList<Page>(dirty.values());
+        log.logWrites(tid, pages);
+        log.force();
+        for (Page p : pages) {
+            fileOf(p, hf, indexes).writePage(p);
+            p.setBeforeImage();
+        }
+        dirty.clear();
+    }
+
+    /** @return the file among hf and its indexes that page p belongs to */
+    private static DbFile fileOf(Page p, HeapFile hf, List<IndexFile> indexes) {
+        int id = p.getId().getTableId();
+        for (IndexFile index : indexes) {
+            if (index.getId() == id)
+                return index;
+        }
+        return hf;
+    }
+}
@@ -1,18 +1,34 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.*;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Files can be written in any {@link PageFormat}.
+ * <p>
+ * Text files are loaded in a pipeline: the input is read in large chunks
+ * that end on a line boundary, the chunks are parsed into tuples in
+ * parallel, and the tuples are packed into pages in input order and
+ * written out many pages at a time.
  */
 
 public class HeapFileEncoder {
 
+  /** Bytes of input text parsed by one task of the bulk loader. */
+  static final int CHUNK_SIZE = 1 << 20;
+
+  /** Bytes of pages collected before they are written to the output file. */
+  static final int WRITE_SIZE = 1 << 20;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -26,29 +42,30 @@ public class HeapFileEncoder {
    * @param outFile The output file to write data to
    * @param npagebytes The number of bytes per page in the output file
    * @param numFields the number of fields in each input tuple
-   * @throws IOException if the temporary/output file can't be opened
+   * @throws IOException if the output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-      File tempInput = File.createTempFile("tempTable", ".txt");
-      tempInput.deleteOnExit();
-      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-      for (ArrayList<Integer> tuple : tuples) {
-          int writtenFields = 0;
-          for (Integer field : tuple) {
-              writtenFields++;
-              if (writtenFields > numFields) {
-                  throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      TupleDesc td = new TupleDesc(ts);
+      PagePacker packer = new PagePacker(outFile, npagebytes, td, PageFormat.HEAP);
+      try {
+          for (ArrayList<Integer> tuple : tuples) {
+              if (tuple.size() != numFields) {
+                  throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
                           Utility.listToString(tuple) + ")");
               }
-              bw.write(String.valueOf(field));
-              if (writtenFields < numFields) {
-                  bw.write(',');
-              }
+              Tuple t = new Tuple(td);
+              for (int i = 0; i < numFields; i++)
+                  t.setField(i, new IntField(tuple.get(i)));
+              packer.add(t);
           }
-          bw.write('\n');
+          packer.finish();
+      } finally {
+          packer.close();
       }
-      bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -68,12 +85,13 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each field is an integer or a
+    * string as given by typeAr. Blank lines are skipped, and integers that
+    * can't be parsed are stored as 0.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
@@ -84,143 +102,302 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
-    * @throws IOException if the input/output file can't be opened or a
-    *   malformed input line is encountered
+    * @param typeAr the type of each field
+    * @param fieldSeparator the character between fields on a line
+    * @throws IOException if the input/output file can't be opened
     */
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, PageFormat.HEAP);
+  }
+
+  /** Convert the specified input text file into a binary page file laid
+   * out in the given page format. The input is as for
+   * {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @see PageFormat
+   * @param format The page format of the output file
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageFormat format)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, format, null);
+  }
+
+  /** Convert the specified input text file into a binary page file laid
+   * out in the given page format, as
+   * {@link #convert(File, File, int, int, Type[], char, PageFormat)}, and
+   * print the progress of the load (rows/s and MB/s of input) to
+   * progress about once a second.
+   *
+   * @param progress where to report progress, or null for a silent load
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageFormat format,
+                 PrintStream progress)
+      throws IOException {
+      Type[] types = new Type[numFields];
+      System.arraycopy(typeAr, 0, types, 0, numFields);
+      TupleDesc td = new TupleDesc(types);
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+      int nthreads = Runtime.getRuntime().availableProcessors();
+      ExecutorService parsers = Executors.newFixedThreadPool(nthreads);
+      // parsed chunks, in input order; bounded so a fast reader doesn't
+      // pile up parsed tuples in memory
+      ArrayDeque<Future<ArrayList<Tuple>>> pending = new ArrayDeque<Future<ArrayList<Tuple>>>();
+      int maxPending = nthreads + 2;
+
+      long start = System.currentTimeMillis();
+      long lastReport = start;
+      long bytesIn = 0;
+      long rows = 0;
+
+      InputStream in = new FileInputStream(inFile);
+      PagePacker packer = new PagePacker(outFile, npagebytes, td, format);
+      try {
+          byte[] buf = new byte[CHUNK_SIZE];
+          int len = 0;
+          boolean eof = false;
+          while (!eof) {
+              int n = in.read(buf, len, buf.length - len);
+              if (n < 0)
+                  eof = true;
+              else
+                  len += n;
+              if (len < buf.length && !eof)
+                  continue;
+
+              // hand everything up to the last complete line to a parser
+              int end = len;
+              if (!eof) {
+                  while (end > 0 && buf[end - 1] != '\n')
+                      end--;
+                  if (end == 0) {
+                      // a line longer than the buffer
+                      byte[] bigger = new byte[buf.length * 2];
+                      System.arraycopy(buf, 0, bigger, 0, len);
+                      buf = bigger;
+                      continue;
+                  }
+              }
+              if (end > 0) {
+                  byte[] chunk = new byte[end];
+                  System.arraycopy(buf, 0, chunk, 0, end);
+                  pending.add(parsers.submit(new ChunkParser(chunk, td, fieldSeparator)));
+                  bytesIn += end;
+              }
+              System.arraycopy(buf, end, buf, 0, len - end);
+              len -= end;
+
+              while (pending.size() >= maxPending || (eof && !pending.isEmpty())) {
+                  ArrayList<Tuple> parsed = take(pending.poll());
+                  for (Tuple t : parsed)
+                      packer.add(t);
+                  rows += parsed.size();
+              }
+
+              long now = System.currentTimeMillis();
+              if (progress != null && now - lastReport >= 1000) {
+                  reportProgress(progress, "Loaded", rows, bytesIn, now - start);
+                  lastReport = now;
+              }
+          }
+          packer.finish();
+      } finally {
+          parsers.shutdownNow();
+          in.close();
+          packer.close();
+      }
+
+      if (progress != null) {
+          reportProgress(progress, "Loaded " + packer.numPages() + " pages,",
+                  rows, bytesIn, System.currentTimeMillis() - start);
+      }
+  }
+
+  private static ArrayList<Tuple> take(Future<ArrayList<Tuple>> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException)
+              throw (RuntimeException) e.getCause();
+          throw new IOException(e.getCause().toString());
+      }
+  }
+
+  private static void reportProgress(PrintStream out, String what, long rows, long bytes, long millis) {
+      double secs = Math.max(millis, 1) / 1000.0;
+      out.println(String.format("%s %d rows in %.1f s (%.0f rows/s, %.1f MB/s)",
+              what, rows, secs, rows / secs, bytes / secs / (1 << 20)));
+  }
+
+  /**
+   * Parses a chunk of complete input lines into tuples.
+   */
+  private static class ChunkParser implements Callable<ArrayList<Tuple>> {
+      private final byte[] chunk;
+      private final TupleDesc td;
+      private final char separator;
+
+      ChunkParser(byte[] chunk, TupleDesc td, char separator) {
+          this.chunk = chunk;
+          this.td = td;
+          this.separator = separator;
+      }
+
+      public ArrayList<Tuple> call() {
+          String text = new String(chunk, Charset.defaultCharset());
+          ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+          int numFields = td.numFields();
+          int pos = 0;
+          while (pos < text.length()) {
+              int eol = text.indexOf('\n', pos);
+              if (eol < 0)
+                  eol = text.length();
+              int lineEnd = eol;
+              // Ignore Windows/Notepad special line endings
+              if (lineEnd > pos && text.charAt(lineEnd - 1) == '\r')
+                  lineEnd--;
+              if (!isBlank(text, pos, lineEnd)) {
+                  Tuple t = new Tuple(td);
+                  int fieldStart = pos;
+                  for (int i = 0; i < numFields; i++) {
+                      int fieldEnd = fieldStart <= lineEnd ? text.indexOf(separator, fieldStart) : -1;
+                      if (fieldEnd < 0 || fieldEnd > lineEnd)
+                          fieldEnd = lineEnd;
+                      int from = Math.min(fieldStart, lineEnd);
+                      t.setField(i, parseField(text, from, fieldEnd, td.getFieldType(i)));
+                      fieldStart = fieldEnd + 1;
+                  }
+                  tuples.add(t);
+              }
+              pos = eol + 1;
+          }
+          return tuples;
+      }
+
+      private static boolean isBlank(String s, int start, int end) {
+          for (int i = start; i < end; i++)
+              if (s.charAt(i) > ' ')
+                  return false;
+          return true;
+      }
+
+      private static Field parseField(String s, int start, int end, Type type) {
+          while (start < end && s.charAt(start) <= ' ')
+              start++;
+          while (end > start && s.charAt(end - 1) <= ' ')
+              end--;
+          if (type == Type.INT_TYPE) {
+              try {
+                  return new IntField(parseInt(s, start, end));
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + s.substring(start, end));
+                  return new IntField(0);
+              }
+          }
+          return new StringField(s.substring(start, end), Type.STRING_LEN);
+      }
+
+      /** Integer.parseInt without the substring for the common case. */
+      private static int parseInt(String s, int start, int end) {
+          int i = start;
+          boolean neg = false;
+          if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+              neg = s.charAt(i) == '-';
+              i++;
+          }
+          // empty, or possibly out of range: let Integer sort it out
+          if (i == end || end - i > 9)
+              return Integer.parseInt(s.substring(start, end));
+          int v = 0;
+          for (; i < end; i++) {
+              char c = s.charAt(i);
+              if (c < '0' || c > '9')
+                  return Integer.parseInt(s.substring(start, end));
+              v = v * 10 + (c - '0');
+          }
+          return neg ? -v : v;
+      }
+  }
+
+  /**
+   * Packs tuples into consecutive pages of an output file, writing many
+   * pages with each write.
+   */
+  private static class PagePacker {
+      private final int npagebytes;
+      private final TupleDesc td;
+      private final PageFormat format;
+      private final FileOutputStream os;
+      private final FileChannel out;
+      private final ByteBuffer buffer;
+
+      // the pages are never registered with the catalog, so the id is arbitrary
+      private final HeapPageId pid = new HeapPageId(0, 0);
+      private TuplePage page;
+      private int recordcount = 0;
+      private int npages = 0;
+
+      PagePacker(File outFile, int npagebytes, TupleDesc td, PageFormat format) throws IOException {
+          this.npagebytes = npagebytes;
+          this.td = td;
+          this.format = format;
+          os = new FileOutputStream(outFile);
+          out = os.getChannel();
+          buffer = ByteBuffer.allocate(Math.max(1, WRITE_SIZE / npagebytes) * npagebytes);
+          page = format.createPage(pid, new byte[npagebytes], td);
+      }
+
+      void add(Tuple t) throws IOException {
+          try {
+              page.insertTuple(t);
+          } catch (DbException e) {
+              // page is full: write it out and start a new one
+              if (recordcount == 0)
+                  throw new IOException("tuple does not fit on an empty page: " + t);
+              writePage();
+              add(t);
+              return;
+          }
+          recordcount++;
+      }
+
+      /**
+       * Writes out the last page if it has records on it, but always
+       * writes at least one page.
+       */
+      void finish() throws IOException {
+          if (recordcount > 0 || npages == 0)
+              writePage();
+          flush();
+      }
+
+      int numPages() {
+          return npages;
+      }
+
+      private void writePage() throws IOException {
+          if (buffer.remaining() < npagebytes)
+              flush();
+          buffer.put(page.getPageData());
+          npages++;
+          page = format.createPage(pid, new byte[npagebytes], td);
+          recordcount = 0;
+      }
+
+      private void flush() throws IOException {
+          buffer.flip();
+          while (buffer.hasRemaining())
+              out.write(buffer);
+          buffer.clear();
+      }
+
+      void close() throws IOException {
+          os.close();
+      }
   }
 }
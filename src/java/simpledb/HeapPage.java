@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -11,63 +12,109 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    final int headerSize;
     final Tuple tuples[];
     final int numSlots;
 
+    // the serialized image of this page, which is the source of truth for
+    // the header and every slot; tuples[] only caches slots decoded from it.
+    // Until the page is first modified this is the same array as oldData,
+    // or null if the page reads straight from mapped.
+    byte[] data;
+    // a read-only view of the page as read from a memory mapped file, which
+    // backs the page until it is first modified; null otherwise
+    private final ByteBuffer mapped;
+    // offset of each field within a tuple slot
+    final int fieldOffsets[];
+
+    // the slot header as 64-bit words (bit i of the header is bit i%64 of
+    // word i/64), kept in step with the header bytes in data
+    final long usedWords[];
+    private int numUsed;
+
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
-    private TransactionId m_tid;
+    private final Object oldDataLock = new Object();
+    private volatile TransactionId m_tid;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
-     * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     *          floor((page size*8) / (tuple size * 8 + 1))
+     * <p> where page size is the length of data, and tuple size is the size
+     * of tuples in this database table, which can be determined via
+     * {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The tuple slots are not parsed here; each one is decoded the first
+     * time it is accessed, so the caller must not modify data afterwards.
+     * The page itself copies data before its first modification.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see HeapFile#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a table that isn't (yet) in the catalog.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td) {
+        this(id, data, null, data.length, td);
+    }
+
+    /**
+     * Create a HeapPage that reads from a read-only view of a memory mapped
+     * page, such as a slice of a MappedByteBuffer, instead of a copy of it.
+     * The page copies the view before its first modification, so the view
+     * only has to stay unchanged while the page is clean.
+     *
+     * @see MappedHeapFile#readPage
+     */
+    HeapPage(HeapPageId id, ByteBuffer mapped, TupleDesc td) {
+        this(id, null, mapped, mapped.capacity(), td);
+    }
+
+    private HeapPage(HeapPageId id, byte[] data, ByteBuffer mapped, int pageSize, TupleDesc td) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.td = td;
+        this.data = data;
+        this.mapped = mapped;
+        this.numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = getHeaderSize();
+
+        usedWords = new long[(numSlots + 63) / 64];
+        for (int j=0; j<headerSize; j++) {
+            byte b = data != null ? data[j] : mapped.get(j);
+            usedWords[j >>> 3] |= (b & 0xffL) << ((j & 7) * 8);
         }
-        dis.close();
+        // ignore any stray bits past the last slot
+        if (numSlots % 64 != 0)
+            usedWords[usedWords.length - 1] &= (1L << numSlots) - 1;
+        for (long w : usedWords)
+            numUsed += Long.bitCount(w);
 
-        setBeforeImage();
-    }
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
-    /** Retrieve the number of tuples on this page.
-        @return the number of tuples on this page
-    */
-    private int getNumTuples() {        
-		return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        tuples = new Tuple[numSlots];
+
+        // the page as read is its own before image; share the buffer rather
+        // than re-serializing the page (see beginWrite). A mapped page has
+        // no byte[] yet, so its before image is the mapping too.
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
     }
 
     /**
@@ -81,25 +128,50 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        return new HeapPage(pid,getBeforeImageData(),td);
+    }
+
+    /** @return the page image getBeforeImage is built from */
+    byte[] getBeforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return oldData != null ? oldData : copyMapped();
         }
-        return null;
+    }
+
+    /** @return a copy of the mapped page this page was read from */
+    private byte[] copyMapped() {
+        byte[] copy = new byte[mapped.capacity()];
+        // duplicate so concurrent readers don't share a position
+        ByteBuffer buf = mapped.duplicate();
+        buf.clear();
+        buf.get(copy);
+        return copy;
     }
     
     public void setBeforeImage() {
+        // share the current image; it is copied on the next modification
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data;
+        }
+    }
+
+    /**
+     * Must be called before modifying data in place. If the before image
+     * still shares the page buffer, gives the page a private copy so the
+     * before image is preserved. A mapped page copies its before image out
+     * of the mapping as well, since writing the page back changes the
+     * mapped bytes.
+     */
+    private void beginWrite() {
+        synchronized(oldDataLock)
+        {
+        if (data == null) {
+            oldData = copyMapped();
+            data = oldData.clone();
+        } else if (oldData == data)
+            data = data.clone();
         }
     }
 
@@ -111,39 +183,34 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Offset into the page data of field fieldIndex of slot slotId. Tuples
+     * are stored row by row, so the fields of a slot are contiguous.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    int fieldOffset(int slotId, int fieldIndex) {
+        return headerSize + slotId * td.getSize() + fieldOffsets[fieldIndex];
+    }
 
+    /**
+     * Returns a tuple for the given (used) slot whose fields are decoded
+     * from the page data as they are accessed, so a Filter or Project on
+     * top of a SeqScan only decodes the fields it asks for.
+     */
+    Tuple readTuple(int slotId) {
+        LazyTuple t = new LazyTuple(td, this, slotId);
+        t.setRecordId(new RecordId(pid, slotId));
         return t;
     }
 
+    /**
+     * Decodes a single field straight from the page data, for LazyTuple.
+     */
+    Field readField(int slotId, int fieldIndex) {
+        byte[] d = data;
+        if (d == null)
+            return td.getFieldType(fieldIndex).parse(mapped, fieldOffset(slotId, fieldIndex));
+        return td.getFieldType(fieldIndex).parse(d, fieldOffset(slotId, fieldIndex));
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -156,64 +223,10 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        synchronized(oldDataLock)
+        {
+        return data != null ? data.clone() : copyMapped();
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -226,8 +239,14 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Like {@link #createEmptyPageData()}, for a page of pageSize bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -243,7 +262,18 @@ public class HeapPage implements Page {
         if (t.getRecordId() != null && t.getRecordId().getPageId().equals(pid)) {
             int i = t.getRecordId().tupleno();
             if (isSlotUsed(i)) {
+                // a lazy tuple still reading from the slot must stop doing
+                // so before the slot is cleared and possibly reused
+                if (tuples[i] instanceof LazyTuple)
+                    ((LazyTuple) tuples[i]).detach();
+                if (t instanceof LazyTuple)
+                    ((LazyTuple) t).detach();
+                beginWrite();
                 markSlotUsed(i, false);
+                for (int j=0; j<td.numFields(); j++) {
+                    int off = fieldOffset(i, j);
+                    Arrays.fill(data, off, off + td.getFieldType(j).getLen(), (byte) 0);
+                }
                 t.setRecordId(null);
                 tuples[i] = null;
                 return;
@@ -269,12 +299,10 @@ public class HeapPage implements Page {
         else if (!td.equals(t.getTupleDesc()))
             throw new DbException("tupledesc is a mismatch");
         else {
-            int i = 0;
-            while (i < numSlots) {
-                if (!isSlotUsed(i))
-                    break;
-                i++;
-            }
+            int i = nextEmptySlot(0);
+            beginWrite();
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(data, fieldOffset(i, j));
             t.setRecordId(new RecordId(pid, i));
             tuples[i] = t;
             markSlotUsed(i, true);
@@ -307,35 +335,75 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-		int emptySlots = 0;
-		
-		for (byte b : header) {
-			for (int i = 0; i < 8; i++) {
-				if ((((b >> i) & 1) == 0))
-					emptySlots++;
-			}
-		}
-
-		return emptySlots;
+		return numSlots - numUsed;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-		int headerByteIndex = i / 8;
-		int bitIndex = i % 8;
-		
-		byte headerByte = this.header[headerByteIndex];
+		return ((usedWords[i >>> 6] >>> i) & 1) != 0;
+    }
+
+    /**
+     * Returns the first used slot at or after from, or -1 if there is none.
+     */
+    private int nextUsedSlot(int from) {
+		if (from >= numSlots)
+			return -1;
+		int w = from >>> 6;
+		// shifting by from only uses its low 6 bits
+		long word = usedWords[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == usedWords.length)
+				return -1;
+			word = usedWords[w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
 
-		return (((headerByte >> bitIndex) & 1) == 1);
+    /**
+     * Returns the first empty slot at or after from, or -1 if there is none.
+     */
+    private int nextEmptySlot(int from) {
+		if (from >= numSlots)
+			return -1;
+		int w = from >>> 6;
+		long word = ~usedWords[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == usedWords.length)
+				return -1;
+			word = ~usedWords[w];
+		}
+		int i = (w << 6) + Long.numberOfTrailingZeros(word);
+		return i < numSlots ? i : -1;
     }
 
     /**
-     * Return the tuple from a specified index
+     * Return the tuple from a specified index, decoding it from the page
+     * data if it hasn't been accessed yet. Returns null for an empty slot.
      */
 	public Tuple getTupleFromSlot(int i) {
-		return this.tuples[i];
+		if (!isSlotUsed(i))
+			return null;
+		Tuple t = this.tuples[i];
+		if (t == null) {
+			t = readTuple(i);
+			this.tuples[i] = t;
+		}
+		return t;
+	}
+
+    /**
+     * Return a single field of the tuple in a (used) slot. Unlike
+     * {@link #getTupleFromSlot}, this does not materialize the whole tuple
+     * if it hasn't been accessed yet.
+     */
+	public Field getField(int i, int fieldIndex) {
+		Tuple t = this.tuples[i];
+		if (t != null)
+			return t.getField(fieldIndex);
+		return readField(i, fieldIndex);
 	}
 
     /**
@@ -344,12 +412,19 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        if (isSlotUsed(i) == value)
+            return;
         int byteid = i/8;
         int bitid = i%8;
-        if (value == true)
-            header[byteid] = (byte) (header[byteid]|1<<bitid);
-        else
-            header[byteid] = (byte) (header[byteid]&~(1<<bitid));
+        if (value == true) {
+            data[byteid] = (byte) (data[byteid]|1<<bitid);
+            usedWords[i >>> 6] |= 1L << i;
+            numUsed++;
+        } else {
+            data[byteid] = (byte) (data[byteid]&~(1<<bitid));
+            usedWords[i >>> 6] &= ~(1L << i);
+            numUsed--;
+        }
     }
 
     /**
@@ -358,29 +433,22 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
 		return (new Iterator<Tuple>() {
+			// slot to resume searching from; re-checked on every call so
+			// slots emptied behind our back are skipped
 			private int index = 0;
-			
-			public Tuple next() {
 
-				while (index < getNumTuples()) {
-					if (isSlotUsed(index++))
-						return getTupleFromSlot(index - 1);
-				}
-
-				throw new NoSuchElementException();
+			public Tuple next() {
+				int i = nextUsedSlot(index);
+				if (i < 0)
+					throw new NoSuchElementException();
+				index = i + 1;
+				return getTupleFromSlot(i);
 			}
 
 			public boolean hasNext() {
-				int tempIndex = index;
-
-				for (tempIndex = index; tempIndex < getNumTuples(); tempIndex++) {
-					if (isSlotUsed(tempIndex))
-						return true;
-				}
-
-				return false;
+				return nextUsedSlot(index) >= 0;
 			}
-			
+
 			public void remove() {
 				throw new UnsupportedOperationException();
 			}
@@ -388,5 +456,57 @@ public class HeapPage implements Page {
 
 	}
 
+    /**
+     * A Tuple that decodes each field from its HeapPage the first time it
+     * is read.
+     */
+    static class LazyTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        // null once every field has been decoded
+        private transient HeapPage page;
+        private final int slot;
+
+        LazyTuple(TupleDesc td, HeapPage page, int slot) {
+            super(td);
+            this.page = page;
+            this.slot = slot;
+        }
+
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            HeapPage p = page;
+            if (f == null && p != null) {
+                f = p.readField(slot, i);
+                super.setField(i, f);
+            }
+            return f;
+        }
+
+        public Iterator<Field> fields() {
+            detach();
+            return super.fields();
+        }
+
+        public void resetTupleDesc(TupleDesc td) {
+            page = null;
+            super.resetTupleDesc(td);
+        }
+
+        /** Decodes all remaining fields and drops the reference to the page. */
+        void detach() {
+            if (page == null)
+                return;
+            for (int i=0; i<getTupleDesc().numFields(); i++)
+                getField(i);
+            page = null;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            detach();
+            out.defaultWriteObject();
+        }
+    }
 }
 
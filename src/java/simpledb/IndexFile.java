@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * An IndexFile is a secondary index on one field of a table. Its tuples are
+ * entries holding the key, whose RecordIds point at the indexed tuples of
+ * the table.
+ * <p>
+ * An index is kept up to date through the DbFile methods, which take tuples
+ * of the indexed table: {@link DbFile#insertTuple} adds an entry for a tuple
+ * that was just inserted into the table, and {@link DbFile#deleteTuple}
+ * removes the entry of a tuple. Indexes registered with
+ * {@link Catalog#addIndex} are maintained by the BufferPool.
+ *
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the indexed table */
+    public int getTableId();
+
+    /** @return the index of the indexed field within the table's tuples */
+    public int getKeyField();
+
+    /** @return true if {@link #indexIterator} can answer predicates with op */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the entries whose key satisfies
+     * <code>key op value</code>.
+     *
+     * @throws UnsupportedOperationException if op is not supported
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value);
+}
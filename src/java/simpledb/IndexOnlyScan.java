@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an access method that answers a query from the entries
+ * of a {@link BTreeFile} alone, without reading the indexed table. Its
+ * tuples hold the key and the index's included fields, named as in the
+ * table and prefixed with the table alias like {@link SeqScan}'s, so it can
+ * stand in for a scan of the table when a query uses no other fields. It returns the entries whose key satisfies
+ * <code>key op value</code>, or every entry, in key order.
+ */
+public class IndexOnlyScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final BTreeFile index;
+    private final Predicate.Op op;
+    private final Field value;
+    private final String tableAlias;
+    private final TupleDesc td;
+
+    private DbFileIterator entries;
+
+    /**
+     * Creates a scan of the entries of index whose key satisfies
+     * <code>key op value</code>.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param index the index to read
+     * @param op the comparison, or null to read every entry
+     * @param value the value keys are compared to
+     * @param tableAlias the alias of the indexed table
+     */
+    public IndexOnlyScan(TransactionId tid, BTreeFile index, Predicate.Op op, Field value,
+            String tableAlias) {
+        if (op != null && !index.supports(op))
+            throw new IllegalArgumentException("index doesn't support " + op);
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.value = value;
+        this.tableAlias = tableAlias;
+
+        TupleDesc entryTd = index.getTupleDesc();
+        Type[] types = new Type[entryTd.numFields()];
+        String[] names = new String[entryTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = entryTd.getFieldType(i);
+            names[i] = tableAlias + "." + entryTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /** Creates a scan of every entry of index. */
+    public IndexOnlyScan(TransactionId tid, BTreeFile index, String tableAlias) {
+        this(tid, index, null, null, tableAlias);
+    }
+
+    /** @return the name of the table the operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the index this operator reads */
+    public BTreeFile getIndex() {
+        return index;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = op == null ? index.iterator(tid) : index.indexIterator(tid, op, value);
+        entries.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the index's entries, with field names prefixed
+     * with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (entries == null)
+            throw new IllegalStateException("IndexOnlyScan not open");
+        return entries.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        // a copy, as the entry itself stays on its index page
+        Tuple e = entries.next();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, e.getField(i));
+        t.setRecordId(e.getRecordId());
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        entries.rewind();
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        entries = null;
+    }
+}
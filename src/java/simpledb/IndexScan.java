@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table satisfying
+ * <code>field op value</code>, where field is the key of an
+ * {@link IndexFile} on the table. It reads the matching entries from the
+ * index and fetches each tuple through the BufferPool by its RecordId, so
+ * it only reads the pages of the table that hold matching tuples.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final Predicate.Op op;
+    private final Field value;
+    private final String tableAlias;
+    private final TupleDesc td;
+
+    private DbFileIterator entries;
+    private Tuple next;
+
+    /**
+     * Creates a scan of the tuples of the indexed table whose key satisfies
+     * <code>key op value</code>.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param index the index to read
+     * @param op the comparison, which index must support
+     * @param value the value keys are compared to
+     * @param tableAlias the alias of the indexed table
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate.Op op, Field value,
+            String tableAlias) {
+        if (!index.supports(op))
+            throw new IllegalArgumentException("index doesn't support " + op);
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.value = value;
+        this.tableAlias = tableAlias;
+        this.td = Database.getCatalog().getTupleDesc(index.getTableId());
+    }
+
+    /** @return the name of the table the operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the index this operator reads */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate this scan answers, over the fields of the
+     *         indexed table
+     */
+    public Predicate getPredicate() {
+        return new Predicate(index.getKeyField(), op, value);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.indexIterator(tid, op, value);
+        entries.open();
+        next = null;
+    }
+
+    /** Returns the TupleDesc of the indexed table. */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (entries == null)
+            throw new IllegalStateException("IndexScan not open");
+        while (next == null && entries.hasNext()) {
+            RecordId rid = entries.next().getRecordId();
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
+                    rid.getPageId(), Permissions.READ_ONLY);
+            next = page.getTupleFromSlot(rid.tupleno());
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        entries.rewind();
+        next = null;
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        entries = null;
+        next = null;
+    }
+}
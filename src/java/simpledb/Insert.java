@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
  * constructor
@@ -70,7 +72,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 		if (!child.hasNext())
@@ -78,18 +80,13 @@ public class Insert extends Operator {
 
 		BufferPool bPool = Database.getBufferPool();
 
-		int tuplesInserted = 0;
-
-		while (child.hasNext()) {
-			Tuple tup = child.next();
-
-			try {
-				bPool.insertTuple(t, tableid, tup);
-			} catch(Exception e) {
-				throw new DbException("IOException in buffer pool insertion");
-			}
+		int tuplesInserted;
 
-			tuplesInserted++;
+		// append the whole child to new pages instead of inserting tuple by tuple
+		try {
+			tuplesInserted = bPool.insertTuples(t, tableid, child);
+		} catch(IOException e) {
+			throw new DbException("IOException in buffer pool insertion");
 		}
 
 		Tuple tup = new Tuple(this.td);
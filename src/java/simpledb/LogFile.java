@@ -218,7 +218,39 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /** Write UPDATE records for a batch of pages written by tid, as
+        logWrite would for each of them, but together: the records are
+        contiguous in the log and written with a single write.
+        @param tid The transaction performing the writes
+        @param pages The after images; their before images come from
+          Page.getBeforeImage()
+
+        @see #logWrite
+    */
+    public synchronized void logWrites(TransactionId tid, List<Page> pages)
+        throws IOException {
+        if (pages.isEmpty())
+            return;
+        for (int i = 0; i < pages.size(); i++)
+            preAppend();
+        Debug.log("WRITE " + pages.size() + " PAGES, offset = " + currentOffset);
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        for (Page p : pages) {
+            long start = currentOffset + out.size();
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+            writePageData(out, p.getBeforeImage());
+            writePageData(out, p);
+            out.writeLong(start);
+        }
+        out.flush();
+        raf.write(records.toByteArray());
+        currentOffset = raf.getFilePointer();
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -265,7 +297,16 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have other constructors besides (PageId, byte[])
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isAssignableFrom(idClass)
+                        && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new InstantiationException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +316,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -328,6 +369,7 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
+                Database.getCatalog().checkpoint();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -1,7 +1,9 @@
 package simpledb;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -306,6 +308,83 @@ public class LogicalPlan {
 
         }
 
+        // answer one filter per table from an index on its field, preferring
+        // an equality filter; the others are applied to the index's output
+        HashMap<String,LogicalFilterNode> indexFilters = new HashMap<String,LogicalFilterNode>();
+        for (LogicalFilterNode lf : filters) {
+            if (findIndex(lf) == null)
+                continue;
+            LogicalFilterNode chosen = indexFilters.get(lf.tableAlias);
+            if (chosen == null || (chosen.p != Predicate.Op.EQUALS && lf.p == Predicate.Op.EQUALS))
+                indexFilters.put(lf.tableAlias, lf);
+        }
+        // filters answered by an access path need no predicate of their own
+        HashSet<LogicalFilterNode> answered = new HashSet<LogicalFilterNode>();
+        for (LogicalFilterNode lf : indexFilters.values()) {
+            IndexFile index = findIndex(lf);
+            Field f = filterConstant(lf,
+                    Database.getCatalog().getTupleDesc(index.getTableId()).getFieldType(index.getKeyField()));
+            subplanMap.put(lf.tableAlias, new IndexScan(t, index, lf.p, f, lf.tableAlias));
+            answered.add(lf);
+        }
+
+        // tables without such an index AND the bitmaps of all their equality
+        // filters on fields with bitmap indexes
+        for (LogicalFilterNode lf : filters) {
+            if (indexFilters.containsKey(lf.tableAlias) || lf.p != Predicate.Op.EQUALS)
+                continue;
+            BitmapIndex index = findBitmapIndex(lf);
+            if (index == null)
+                continue;
+            DbIterator subplan = subplanMap.get(lf.tableAlias);
+            if (!(subplan instanceof BitmapScan)) {
+                subplan = new BitmapScan(t, index.getTableId(), lf.tableAlias);
+                subplanMap.put(lf.tableAlias, subplan);
+            }
+            ((BitmapScan) subplan).addPredicate(index,
+                    filterConstant(lf, index.getTupleDesc().getFieldType(0)));
+            answered.add(lf);
+        }
+
+        // a table whose fields used by the query are all in a B+ tree index is
+        // read from the index alone. The index answers the table's index
+        // filter, or if the table has none, the first of its filters it can
+        // answer (preferring an equality), or else is read in full; tables
+        // read through a BitmapScan keep it
+        for (LogicalScanNode table : tables) {
+            HashSet<String> fields = referencedFields(table.alias);
+            if (fields == null)
+                continue;
+            LogicalFilterNode keyFilter = indexFilters.get(table.alias);
+            BTreeFile index = null;
+            if (keyFilter != null) {
+                index = findCoveringIndex(table.alias, fields, keyFilter);
+            } else if (subplanMap.get(table.alias) instanceof SeqScan) {
+                for (LogicalFilterNode lf : filters) {
+                    if (!lf.tableAlias.equals(table.alias)
+                        || (keyFilter != null && (keyFilter.p == Predicate.Op.EQUALS || lf.p != Predicate.Op.EQUALS)))
+                        continue;
+                    BTreeFile covering = findCoveringIndex(table.alias, fields, lf);
+                    if (covering != null) {
+                        index = covering;
+                        keyFilter = lf;
+                    }
+                }
+                if (index == null)
+                    index = findCoveringIndex(table.alias, fields, null);
+            }
+            if (index == null)
+                continue;
+            if (keyFilter != null) {
+                Field f = filterConstant(keyFilter,
+                        Database.getCatalog().getTupleDesc(index.getTableId()).getFieldType(index.getKeyField()));
+                subplanMap.put(table.alias, new IndexOnlyScan(t, index, keyFilter.p, f, table.alias));
+                answered.add(keyFilter);
+            } else {
+                subplanMap.put(table.alias, new IndexOnlyScan(t, index, table.alias));
+            }
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +402,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -334,11 +410,23 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // filters on a base table are evaluated by its scan, which can
+            // then skip pages using the table's zone map; the filters the
+            // table's IndexScan or BitmapScan answers need nothing more
+            if (!answered.contains(lf)) {
+                if (subplan instanceof SeqScan)
+                    ((SeqScan) subplan).addPredicate(p);
+                else
+                    subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are of the table's fields, which an index's
+            // entries hold in another order
+            int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                .fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -481,6 +569,121 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Returns an index that can answer the filter lf, or null if the
+     * filtered table has none. Equality filters prefer a hash index, whose
+     * lookups read fewer pages than a B+ tree's.
+     */
+    private IndexFile findIndex(LogicalFilterNode lf) {
+        Integer tableId = getTableId(lf.tableAlias);
+        if (tableId == null)
+            return null;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(lf.fieldPureName);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        IndexFile found = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            // bitmap indexes are combined by a BitmapScan instead
+            if (index instanceof BitmapIndex || index.getKeyField() != field
+                || !index.supports(lf.p))
+                continue;
+            if (found == null || index instanceof HashIndexFile)
+                found = index;
+        }
+        return found;
+    }
+
+    /**
+     * @return the names of the fields of the table with the given alias that
+     *         the query uses, or null if it uses all of them
+     */
+    private HashSet<String> referencedFields(String alias) {
+        HashSet<String> fields = new HashSet<String>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                fields.add(lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (alias.equals(lj.t1Alias))
+                fields.add(lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode) && alias.equals(lj.t2Alias))
+                fields.add(lj.f2PureName);
+        }
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.add(aggField);
+        names.add(groupByField);
+        if (hasOrderBy)
+            names.add(oByField);
+        for (String name : names) {
+            if (name == null)
+                continue;
+            String[] parts = name.split("[.]");
+            if (parts[parts.length - 1].equals("*"))
+                return null;
+            if (parts.length == 2 && parts[0].equals(alias))
+                fields.add(parts[1]);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns a B+ tree index on the table with the given alias whose entries
+     * hold all of the named fields and, if lf isn't null, that can answer
+     * filter lf; or null if there is none.
+     */
+    private BTreeFile findCoveringIndex(String alias, Set<String> fields, LogicalFilterNode lf) {
+        Integer tableId = getTableId(alias);
+        if (tableId == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (!(index instanceof BTreeFile))
+                continue;
+            BTreeFile tree = (BTreeFile) index;
+            boolean covers = true;
+            try {
+                for (String field : fields) {
+                    if (tree.entryIndex(td.fieldNameToIndex(field)) < 0)
+                        covers = false;
+                }
+            } catch (NoSuchElementException e) {
+                covers = false;
+            }
+            if (!covers)
+                continue;
+            if (lf != null && (!lf.fieldPureName.equals(td.getFieldName(tree.getKeyField()))
+                || !tree.supports(lf.p)))
+                continue;
+            return tree;
+        }
+        return null;
+    }
+
+    /** Returns a bitmap index on the field of filter lf, or null if there is none. */
+    private BitmapIndex findBitmapIndex(LogicalFilterNode lf) {
+        Integer tableId = getTableId(lf.tableAlias);
+        if (tableId == null)
+            return null;
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (index instanceof BitmapIndex && lf.fieldPureName.equals(
+                    Database.getCatalog().getTupleDesc(tableId).getFieldName(index.getKeyField())))
+                return (BitmapIndex) index;
+        }
+        return null;
+    }
+
+    /** @return the constant of filter lf as a field of the given type */
+    private static Field filterConstant(LogicalFilterNode lf, Type type) {
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(lf.c));
+        return new StringField(lf.c, Type.STRING_LEN);
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruPolicy evicts the least recently used page that may be evicted. A
+ * single scan of a table larger than the pool evicts every other page.
+ */
+public class LruPolicy extends EvictionPolicy {
+
+    // in access order: least recently used first
+    private final LinkedHashMap<PageId, Boolean> pages =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    public synchronized void pageAdded(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        pages.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public synchronized PageId evict(Evictable pool) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (pool.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
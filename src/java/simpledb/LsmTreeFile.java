@@ -0,0 +1,850 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * LsmTreeFile stores a table as a log-structured merge tree, for tables
+ * that are mostly appended to. Inserts and deletes go to an in-memory
+ * memtable, sorted by a key field, and to an append-only log that the
+ * memtable is rebuilt from when the file is reopened; no page is updated
+ * in place. When the memtable is full it is written out as an immutable
+ * sorted run, and once there are more than {@link #setMaxRuns maxRuns}
+ * runs a background thread merges them all into one.
+ * <p>
+ * Each tuple is identified by a sequence number given to it when it is
+ * inserted, which is the slot of its RecordId; page numbers mean nothing.
+ * Deleting a tuple still in the memtable removes it; deleting one in a run
+ * adds a tombstone, and the two cancel out when runs are scanned or merged.
+ * A delete first looks the tuple up, so deleting one that was never
+ * inserted or is already deleted fails.
+ * Scans merge the memtable and the runs and return tuples in key order.
+ * Each run has a {@link BloomFilter} of its keys, so a lookup of one key
+ * with {@link #keyIterator} reads only the runs that may hold it, and
+ * finds the key in a run by binary search over its fixed-size records.
+ * <p>
+ * The file f given to the constructor lists the runs; they, and the log,
+ * are stored next to it as f.run&lt;n&gt; and f.log&lt;n&gt;. The tuples of an
+ * LsmTreeFile have no pages, so it can't be read through the BufferPool
+ * or indexed. A run replaced by a merge is deleted, even if an open
+ * iterator is still reading it, which works where deleting an open file
+ * does.
+ *
+ * @see Catalog#loadSchema
+ */
+public class LsmTreeFile implements DbFile {
+
+    /** Default number of entries the memtable holds before it is written out. */
+    public static final int DEFAULT_MEMTABLE_SIZE = 4096;
+
+    /** Default number of runs at which they are merged. */
+    public static final int DEFAULT_MAX_RUNS = 4;
+
+    private static final int MAGIC = 0x4C534D54;
+    private static final int BLOOM_BITS = 10;
+
+    private final File file;
+    private final int id;
+    private final TupleDesc td;
+    private final int keyField;
+    // the offset of the key within a tuple, and the size of a record
+    private final int keyOffset;
+    private final int recordSize;
+
+    private boolean loaded = false;
+    private final TreeMap<Entry, Entry> memtable = new TreeMap<Entry, Entry>(ORDER);
+    // newest first
+    private final ArrayList<Run> runs = new ArrayList<Run>();
+    private int nextSeq = 0;
+    private int nextRun = 0;
+    // the log is replaced by a new one, with the next number, on each flush
+    private int logNumber = 0;
+    private OutputStream log;
+
+    private int memtableSize = DEFAULT_MEMTABLE_SIZE;
+    private int maxRuns = DEFAULT_MAX_RUNS;
+    private Thread compactor;
+    private final Object compactionLock = new Object();
+    private long runsSkipped = 0;
+
+    /** A tuple, or the tombstone of a deleted one. */
+    private static class Entry {
+        final Field key;
+        final int seq;
+        final boolean deleted;
+        final Tuple tuple;
+
+        Entry(Field key, int seq, boolean deleted, Tuple tuple) {
+            this.key = key;
+            this.seq = seq;
+            this.deleted = deleted;
+            this.tuple = tuple;
+        }
+    }
+
+    /** Orders entries by key and then by sequence number. */
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            int c = BTreeFile.compareKeys(a.key, b.key);
+            if (c != 0)
+                return c;
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
+
+    /** An immutable sorted run of entries. */
+    private static class Run {
+        final int number;
+        final File file;
+        final BloomFilter bloom;
+        // the offset of the first record
+        final long start;
+        final int count;
+
+        Run(int number, File file, BloomFilter bloom, long start, int count) {
+            this.number = number;
+            this.file = file;
+            this.bloom = bloom;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Opens (or creates, if f is missing) a table stored as an LSM tree.
+     *
+     * @param f the file listing the runs of the table
+     * @param td the schema of the table
+     * @param keyField the index of the field tuples are sorted by
+     */
+    public LsmTreeFile(File f, TupleDesc td, int keyField) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.td = td;
+        this.keyField = keyField;
+        int off = 0;
+        for (int i = 0; i < keyField; i++)
+            off += td.getFieldType(i).getLen();
+        this.keyOffset = off;
+        this.recordSize = 5 + td.getSize();
+    }
+
+    /** Returns the File listing the runs of this table. */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index of the field tuples are sorted by */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** Sets the number of entries the memtable holds before it is written out. */
+    public synchronized void setMemtableSize(int entries) {
+        memtableSize = Math.max(1, entries);
+    }
+
+    /** Sets the number of runs at which they are merged into one. */
+    public synchronized void setMaxRuns(int runs) {
+        maxRuns = Math.max(1, runs);
+    }
+
+    /** @return the number of runs on disk */
+    public synchronized int numRuns() throws DbException {
+        load();
+        return runs.size();
+    }
+
+    /** @return the number of tuples and tombstones in the memtable */
+    public synchronized int getMemtableEntries() throws DbException {
+        load();
+        return memtable.size();
+    }
+
+    /**
+     * @return the number of runs {@link #keyIterator} didn't read because
+     *         their bloom filters ruled the key out
+     */
+    public synchronized long getRunsSkipped() {
+        return runsSkipped;
+    }
+
+    private File runFile(int number) {
+        return new File(file.getPath() + ".run" + number);
+    }
+
+    private File logFile(int number) {
+        return new File(file.getPath() + ".log" + number);
+    }
+
+    private RecordId ridOf(int seq) {
+        return new RecordId(new HeapPageId(id, 0), seq);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        throw new UnsupportedOperationException("LSM trees have no pages");
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page p) throws IOException {
+        throw new UnsupportedOperationException("LSM trees have no pages");
+    }
+
+    /** @return the record of entry e */
+    private byte[] toRecord(Entry e) {
+        byte[] r = new byte[recordSize];
+        r[0] = (byte) (e.deleted ? 0 : 1);
+        Type.writeInt(r, 1, e.seq);
+        int off = 5;
+        for (int i = 0; i < td.numFields(); i++) {
+            e.tuple.getField(i).serialize(r, off);
+            off += td.getFieldType(i).getLen();
+        }
+        return r;
+    }
+
+    private Entry fromRecord(byte[] r) {
+        Tuple t = new Tuple(td);
+        int off = 5;
+        for (int i = 0; i < td.numFields(); i++) {
+            t.setField(i, td.getFieldType(i).parse(r, off));
+            off += td.getFieldType(i).getLen();
+        }
+        int seq = Type.readInt(r, 1);
+        t.setRecordId(ridOf(seq));
+        return new Entry(t.getField(keyField), seq, r[0] == 0, t);
+    }
+
+    /** Reads the list of runs and replays the log, the first time the file is used. */
+    private synchronized void load() throws DbException {
+        if (loaded)
+            return;
+        try {
+            if (file.exists() && file.length() > 0) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)));
+                try {
+                    if (in.readInt() != MAGIC)
+                        throw new DbException("not an LSM tree: " + file);
+                    nextSeq = in.readInt();
+                    nextRun = in.readInt();
+                    logNumber = in.readInt();
+                    int n = in.readInt();
+                    for (int i = 0; i < n; i++)
+                        runs.add(openRun(in.readInt()));
+                } finally {
+                    in.close();
+                }
+            }
+            replayLog();
+        } catch (IOException e) {
+            throw new DbException("error opening " + file + ": " + e);
+        }
+        loaded = true;
+    }
+
+    private Run openRun(int number) throws IOException {
+        File f = runFile(number);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a run: " + f);
+            BloomFilter bloom = BloomFilter.deserialize(in);
+            long start = 4 + bloom.serializedSize();
+            return new Run(number, f, bloom, start, (int) ((f.length() - start) / recordSize));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rebuilds the memtable from the log, dropping a record cut short by a
+     * crash, and opens the log for appending.
+     */
+    private void replayLog() throws IOException {
+        File f = logFile(logNumber);
+        long valid = 0;
+        if (f.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                byte[] r = new byte[recordSize];
+                while (true) {
+                    try {
+                        in.readFully(r);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    apply(fromRecord(r));
+                    nextSeq = Math.max(nextSeq, Type.readInt(r, 1) + 1);
+                    valid += recordSize;
+                }
+            } finally {
+                in.close();
+            }
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+        log = new BufferedOutputStream(new FileOutputStream(f, true));
+    }
+
+    /**
+     * Adds e to the memtable. A tombstone of a tuple in the memtable removes
+     * the tuple instead.
+     */
+    private void apply(Entry e) {
+        Entry old = memtable.get(e);
+        if (old != null && e.deleted)
+            memtable.remove(e);
+        else
+            memtable.put(e, e);
+    }
+
+    /**
+     * @return true if the tuple with the given key and sequence number is in
+     *         the file: the newest entry for it, in the memtable or else in
+     *         the runs from newest to oldest, is the tuple, not a tombstone
+     */
+    private boolean isLive(Field key, int seq) throws IOException {
+        Entry probe = new Entry(key, seq, false, null);
+        Entry e = memtable.get(probe);
+        if (e != null)
+            return !e.deleted;
+        for (Run r : runs) {
+            if (!r.bloom.mightContain(key))
+                continue;
+            RunSource s = new RunSource(r, lowerBound(r, key));
+            try {
+                for (; s.current() != null && ORDER.compare(s.current(), probe) <= 0; s.advance()) {
+                    if (ORDER.compare(s.current(), probe) == 0)
+                        return !s.current().deleted;
+                }
+            } finally {
+                s.close();
+            }
+        }
+        return false;
+    }
+
+    private void appendLog(Entry e) throws IOException {
+        log.write(toRecord(e));
+        log.flush();
+    }
+
+    /** @return a copy of t, as stored in the memtable */
+    private Tuple copy(Tuple t) throws DbException {
+        TupleDesc other = t.getTupleDesc();
+        if (other.numFields() != td.numFields())
+            throw new DbException("tuple does not match the table's schema");
+        Tuple c = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (other.getFieldType(i) != td.getFieldType(i))
+                throw new DbException("tuple does not match the table's schema");
+            c.setField(i, t.getField(i));
+        }
+        return c;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        load();
+        Tuple c = copy(t);
+        int seq = nextSeq++;
+        c.setRecordId(ridOf(seq));
+        Entry e = new Entry(c.getField(keyField), seq, false, c);
+        appendLog(e);
+        apply(e);
+        t.setRecordId(ridOf(seq));
+        if (memtable.size() >= memtableSize)
+            flush();
+        return new ArrayList<Page>();
+    }
+
+    // see DbFile.java for javadocs
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        int count = 0;
+        while (tuples.hasNext()) {
+            insertTuple(tid, tuples.next());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Deletes a tuple read from this file. The tuple is looked up in the
+     * memtable and then in the runs that may hold its key, so deleting a
+     * tuple that isn't in the file, or was deleted already, fails.
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        load();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != id)
+            throw new DbException("tuple is not in this table");
+        Tuple c = copy(t);
+        Entry e = new Entry(c.getField(keyField), rid.tupleno(), true, c);
+        if (!isLive(e.key, e.seq))
+            throw new DbException("tuple " + t + " is not in the table or was already deleted");
+        appendLog(e);
+        apply(e);
+        t.setRecordId(null);
+        if (memtable.size() >= memtableSize)
+            flush();
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Writes sorted entries to a new run file.
+     *
+     * @param expected the number of entries, or an upper bound, which sizes
+     *        the run's bloom filter
+     * @return the run, or null if there were no entries
+     */
+    private Run writeRun(int number, Iterator<Entry> entries, int expected) throws IOException {
+        BloomFilter bloom = new BloomFilter(expected, BLOOM_BITS);
+        File f = runFile(number);
+        File tmp = new File(f.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        int count = 0;
+        try {
+            // the filter is complete only after the records, so the header
+            // is written again at the end
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            bloom.serialize(out);
+            while (entries.hasNext()) {
+                Entry e = entries.next();
+                bloom.add(e.key);
+                out.write(toRecord(e));
+                count++;
+            }
+            out.flush();
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            out = new DataOutputStream(header);
+            out.writeInt(MAGIC);
+            bloom.serialize(out);
+            fos.getChannel().write(java.nio.ByteBuffer.wrap(header.toByteArray()), 0);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (count == 0) {
+            tmp.delete();
+            return null;
+        }
+        if (!tmp.renameTo(f))
+            throw new IOException("can't rename " + tmp + " to " + f);
+        return openRun(number);
+    }
+
+    /** Writes the list of runs, replacing the old list atomically. */
+    private void writeManifest() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(nextSeq);
+            out.writeInt(nextRun);
+            out.writeInt(logNumber);
+            out.writeInt(runs.size());
+            for (Run r : runs)
+                out.writeInt(r.number);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        file.delete();
+        if (!tmp.renameTo(file))
+            throw new IOException("can't rename " + tmp + " to " + file);
+    }
+
+    /**
+     * Writes the memtable out as a new run and empties the log. Starts a
+     * merge of the runs in the background if there are too many.
+     */
+    public synchronized void flush() throws DbException, IOException {
+        load();
+        if (memtable.isEmpty())
+            return;
+        Run r = writeRun(nextRun++, memtable.values().iterator(), memtable.size());
+        if (r != null)
+            runs.add(0, r);
+        memtable.clear();
+        // the new list of runs switches to a new log, so a crash can't
+        // replay the old one on top of the run
+        log.close();
+        logNumber++;
+        log = new BufferedOutputStream(new FileOutputStream(logFile(logNumber), false));
+        writeManifest();
+        logFile(logNumber - 1).delete();
+        if (runs.size() > maxRuns && compactor == null) {
+            compactor = new Thread(new Runnable() {
+                public void run() {
+                    compactInBackground();
+                }
+            }, "LsmCompaction");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    private void compactInBackground() {
+        while (true) {
+            synchronized (this) {
+                if (runs.size() <= maxRuns || !loaded) {
+                    compactor = null;
+                    notifyAll();
+                    return;
+                }
+            }
+            try {
+                compact();
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    compactor = null;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merges all of the runs into one, dropping deleted tuples and their
+     * tombstones. Inserts and deletes can go on meanwhile; runs written
+     * during the merge are left as they are.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            ArrayList<Run> inputs;
+            int number;
+            synchronized (this) {
+                if (!loaded || runs.size() < 2)
+                    return;
+                inputs = new ArrayList<Run>(runs);
+                number = nextRun++;
+            }
+            int expected = 0;
+            ArrayList<Source> sources = new ArrayList<Source>();
+            try {
+                for (Run r : inputs) {
+                    sources.add(new RunSource(r, 0));
+                    expected += r.count;
+                }
+                final MergeIterator merge = new MergeIterator(sources, null);
+                Run merged = writeRun(number, new Iterator<Entry>() {
+                    public boolean hasNext() {
+                        return merge.peek() != null;
+                    }
+
+                    public Entry next() {
+                        return merge.poll();
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                }, expected);
+                synchronized (this) {
+                    // the inputs are the oldest runs; anything newer stays in front
+                    runs.removeAll(inputs);
+                    if (merged != null)
+                        runs.add(merged);
+                    writeManifest();
+                }
+            } finally {
+                for (Source s : sources)
+                    s.close();
+            }
+            for (Run r : inputs)
+                r.file.delete();
+        }
+    }
+
+    /** Waits until no merge is running in the background. */
+    public synchronized void awaitCompaction() throws InterruptedException {
+        while (compactor != null)
+            wait();
+    }
+
+    /**
+     * Waits for a background merge and closes the log. The memtable isn't
+     * written out; it is rebuilt from the log when the file is used again.
+     */
+    public void close() {
+        try {
+            awaitCompaction();
+        } catch (InterruptedException e) {
+            // close anyway
+        }
+        synchronized (this) {
+            if (!loaded)
+                return;
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            memtable.clear();
+            runs.clear();
+            loaded = false;
+        }
+    }
+
+    /** A sorted stream of entries being merged. */
+    private interface Source {
+        /** @return the current entry, or null at the end */
+        Entry current();
+
+        void advance() throws IOException;
+
+        void close();
+    }
+
+    private static class ListSource implements Source {
+        private final Iterator<Entry> it;
+        private Entry current;
+
+        ListSource(Collection<Entry> entries) {
+            it = entries.iterator();
+            advance();
+        }
+
+        public Entry current() {
+            return current;
+        }
+
+        public void advance() {
+            current = it.hasNext() ? it.next() : null;
+        }
+
+        public void close() {
+        }
+    }
+
+    /** Reads the records of a run from the index-th on. */
+    private class RunSource implements Source {
+        private final DataInputStream in;
+        private final byte[] record = new byte[recordSize];
+        private int left;
+        private Entry current;
+
+        RunSource(Run run, int index) throws IOException {
+            FileInputStream fis = new FileInputStream(run.file);
+            fis.getChannel().position(run.start + (long) index * recordSize);
+            in = new DataInputStream(new BufferedInputStream(fis));
+            left = run.count - index;
+            advance();
+        }
+
+        public Entry current() {
+            return current;
+        }
+
+        public void advance() throws IOException {
+            if (left == 0) {
+                current = null;
+                return;
+            }
+            in.readFully(record);
+            left--;
+            current = fromRecord(record);
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Merges sources into one stream of the live tuples in key order. A
+     * tuple and its tombstone have the same key and sequence number, so
+     * they meet in the merge and are both dropped. If last isn't null, the
+     * stream ends at the first key greater than it.
+     */
+    private static class MergeIterator {
+        private final PriorityQueue<Source> queue;
+        private final Field last;
+        private Entry next;
+
+        MergeIterator(List<Source> sources, Field last) {
+            this.last = last;
+            queue = new PriorityQueue<Source>(Math.max(1, sources.size()), new Comparator<Source>() {
+                public int compare(Source a, Source b) {
+                    return ORDER.compare(a.current(), b.current());
+                }
+            });
+            for (Source s : sources) {
+                if (s.current() != null)
+                    queue.add(s);
+            }
+        }
+
+        /** Moves the head of the queue past its current entry. */
+        private Entry pop() throws IOException {
+            Source s = queue.poll();
+            Entry e = s.current();
+            s.advance();
+            if (s.current() != null)
+                queue.add(s);
+            return e;
+        }
+
+        Entry peek() {
+            try {
+                while (next == null && !queue.isEmpty()) {
+                    Entry e = pop();
+                    boolean deleted = e.deleted;
+                    while (!queue.isEmpty() && ORDER.compare(queue.peek().current(), e) == 0)
+                        deleted |= pop().deleted;
+                    if (last != null && BTreeFile.compareKeys(e.key, last) > 0) {
+                        queue.clear();
+                        return null;
+                    }
+                    if (!deleted)
+                        next = e;
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException("error reading run: " + ex);
+            }
+            return next;
+        }
+
+        Entry poll() {
+            Entry e = peek();
+            next = null;
+            return e;
+        }
+    }
+
+    /** @return the number of records of run whose key is less than key */
+    private int lowerBound(Run run, Field key) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(run.file, "r");
+        try {
+            Type type = td.getFieldType(keyField);
+            byte[] k = new byte[type.getLen()];
+            int lo = 0, hi = run.count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                raf.seek(run.start + (long) mid * recordSize + 5 + keyOffset);
+                raf.readFully(k);
+                if (BTreeFile.compareKeys(type.parse(k, 0), key) < 0)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new LsmIterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals key. Runs whose
+     * bloom filters don't have the key aren't read.
+     */
+    public DbFileIterator keyIterator(TransactionId tid, Field key) {
+        return new LsmIterator(key);
+    }
+
+    /**
+     * Reads the tuples of the file, or those with one key, merging a copy of
+     * the memtable taken when the iterator is opened with the runs.
+     */
+    private class LsmIterator extends AbstractDbFileIterator {
+
+        private final Field key;
+        private final ArrayList<Source> sources = new ArrayList<Source>();
+        private MergeIterator merge;
+
+        LsmIterator(Field key) {
+            this.key = key;
+        }
+
+        public void open() throws DbException {
+            close();
+            synchronized (LsmTreeFile.this) {
+                load();
+                try {
+                    if (key == null) {
+                        sources.add(new ListSource(new ArrayList<Entry>(memtable.values())));
+                        for (Run r : runs)
+                            sources.add(new RunSource(r, 0));
+                    } else {
+                        Entry from = new Entry(key, Integer.MIN_VALUE, false, null);
+                        Entry to = new Entry(key, Integer.MAX_VALUE, false, null);
+                        sources.add(new ListSource(new ArrayList<Entry>(
+                                memtable.subMap(from, true, to, true).values())));
+                        for (Run r : runs) {
+                            if (r.bloom.mightContain(key))
+                                sources.add(new RunSource(r, lowerBound(r, key)));
+                            else
+                                runsSkipped++;
+                        }
+                    }
+                } catch (IOException e) {
+                    close();
+                    throw new DbException("error reading " + file + ": " + e);
+                }
+            }
+            merge = new MergeIterator(sources, key);
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (merge == null)
+                return null;
+            Entry e;
+            try {
+                e = merge.poll();
+            } catch (RuntimeException ex) {
+                throw new DbException(ex.getMessage());
+            }
+            if (e == null)
+                return null;
+            // a copy, as deleting a tuple clears its RecordId
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, e.tuple.getField(i));
+            t.setRecordId(e.tuple.getRecordId());
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public void close() {
+            super.close();
+            for (Source s : sources)
+                s.close();
+            sources.clear();
+            merge = null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a HeapFile intended for read-mostly tables. Instead of
+ * issuing a read for every page miss, it maps the backing file into memory
+ * in fixed size segments and hands out pages that read straight from a
+ * read-only view of the mapping, so the OS page cache does the caching, a
+ * warm scan never enters the kernel, and a page is only copied once it is
+ * modified (see {@link PageFormat#createPage(HeapPageId, ByteBuffer)}).
+ * <p>
+ * Writes still go through the FileChannel of the underlying HeapFile; the
+ * mapping is shared with the page cache, so they are visible to later
+ * reads. Segments that no longer cover the end of the file are remapped
+ * when the file grows.
+ *
+ * @see simpledb.HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /**
+     * Bytes per mapped segment; segments are rounded down to a multiple of
+     * the page size so that no page straddles two of them.
+     */
+    public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final int segmentSize;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+    /**
+     * Constructs a memory mapped heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.HEAP);
+    }
+
+    /**
+     * Constructs a memory mapped heap file whose pages are laid out in the
+     * given format.
+     */
+    public MappedHeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a memory mapped heap file whose pages are laid out in the
+     * given format and are pageSize bytes long.
+     */
+    public MappedHeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
+        super(f, td, format, pageSize);
+        segmentSize = Math.max(1, SEGMENT_SIZE / pageSize) * pageSize;
+    }
+
+    /**
+     * Returns a mapping of segment segNo that covers at least the first
+     * needed bytes of the segment, mapping or remapping it if the current
+     * mapping is too short. Returns null if the file isn't that long.
+     */
+    private synchronized MappedByteBuffer getSegment(int segNo, int needed) throws IOException {
+        while (segments.size() <= segNo)
+            segments.add(null);
+
+        MappedByteBuffer seg = segments.get(segNo);
+        if (seg == null || seg.capacity() < needed) {
+            FileChannel ch = getChannel();
+            long start = (long) segNo * segmentSize;
+            long len = Math.min(ch.size() - start, segmentSize);
+            if (len < needed)
+                return null;
+            seg = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            segments.set(segNo, seg);
+        }
+        return seg;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = getPageSize();
+        long offset = (long) pid.pageNumber() * pageSize;
+        int segNo = (int) (offset / segmentSize);
+        int segOffset = (int) (offset % segmentSize);
+
+        Page ret = null;
+        try {
+            MappedByteBuffer seg = getSegment(segNo, segOffset + pageSize);
+            if (seg == null) {
+                // past the end of the file (or a partial trailing page);
+                // fall back to the channel, which zero fills
+                return super.readPage(pid);
+            }
+            // duplicate so concurrent readers don't share a position or
+            // limit; the slice is read-only, like the mapping
+            ByteBuffer buf = seg.duplicate();
+            buf.position(segOffset);
+            buf.limit(segOffset + pageSize);
+
+            ret = getPageFormat().createPage((HeapPageId) pid, buf.slice());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return ret;
+    }
+
+    /**
+     * Drops all mappings before truncating, since touching a mapping past
+     * the end of the file is fatal.
+     */
+    synchronized void truncate(int numPages) throws IOException {
+        segments.clear();
+        super.truncate(numPages);
+    }
+
+    /**
+     * Drops all mappings and closes the file handle. Mapped regions are
+     * released once they are garbage collected.
+     */
+    public synchronized void close() {
+        segments.clear();
+        super.close();
+    }
+}
@@ -0,0 +1,311 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * MemoryTable keeps a table in memory, for small dimension tables and
+ * scratch tables that don't need pages. Rows are stored by column, in one
+ * array per field: int fields as an int[] and string fields as a String[],
+ * so a row takes little more than its values, and scans and inserts build
+ * tuples straight from the arrays without going through the BufferPool.
+ * <p>
+ * The row number of a tuple is the slot of its RecordId; page numbers mean
+ * nothing. The rows of deleted tuples are reused by later inserts. The
+ * tuples have no pages, so the table can't be indexed.
+ * <p>
+ * A table may have a snapshot file. It is read the first time the table is
+ * used, and rewritten by {@link #checkpoint}, which {@link Catalog#checkpoint}
+ * calls for every table at a checkpoint of the log. Changes made since the
+ * last checkpoint are lost if the database stops.
+ *
+ * @see Catalog#loadSchema
+ */
+public class MemoryTable implements DbFile {
+
+    private static final int MAGIC = 0x4D454D54;
+
+    private final File snapshot;
+    private final int id;
+    private final TupleDesc td;
+
+    private boolean loaded = false;
+    // column i is an int[] or a String[], as the type of field i
+    private final Object[] columns;
+    private int capacity = 0;
+    // rows below size have been used; live ones are set in live
+    private int size = 0;
+    private final BitSet live = new BitSet();
+    private int numRows = 0;
+    private boolean changed = false;
+
+    /**
+     * Creates an empty table that isn't saved to disk.
+     *
+     * @param td the schema of the table
+     */
+    public MemoryTable(TupleDesc td) {
+        this(td, null);
+    }
+
+    /**
+     * Creates a table that is saved to a snapshot file at checkpoints, and
+     * holds the tuples of the snapshot if it exists.
+     *
+     * @param td the schema of the table
+     * @param snapshot the snapshot file, or null for none
+     */
+    public MemoryTable(TupleDesc td, File snapshot) {
+        this.td = td;
+        this.snapshot = snapshot;
+        this.id = snapshot != null ? snapshot.getAbsoluteFile().hashCode()
+            : UUID.randomUUID().hashCode();
+        this.columns = new Object[td.numFields()];
+        grow(16);
+    }
+
+    /** Returns the snapshot file of this table, or null if it has none. */
+    public File getSnapshotFile() {
+        return snapshot;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples in the table */
+    public synchronized int numRows() throws DbException {
+        load();
+        return numRows;
+    }
+
+    private RecordId ridOf(int row) {
+        return new RecordId(new HeapPageId(id, 0), row);
+    }
+
+    /** Makes room for rows up to capacity. */
+    private void grow(int newCapacity) {
+        for (int i = 0; i < columns.length; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int[] c = new int[newCapacity];
+                if (columns[i] != null)
+                    System.arraycopy(columns[i], 0, c, 0, size);
+                columns[i] = c;
+            } else {
+                String[] c = new String[newCapacity];
+                if (columns[i] != null)
+                    System.arraycopy(columns[i], 0, c, 0, size);
+                columns[i] = c;
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        throw new UnsupportedOperationException("memory tables have no pages");
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page p) throws IOException {
+        throw new UnsupportedOperationException("memory tables have no pages");
+    }
+
+    /** @return the tuple in row, which must be live */
+    private Tuple readRow(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] instanceof int[])
+                t.setField(i, new IntField(((int[]) columns[i])[row]));
+            else
+                t.setField(i, new StringField(((String[]) columns[i])[row], Type.STRING_LEN));
+        }
+        t.setRecordId(ridOf(row));
+        return t;
+    }
+
+    private void writeRow(int row, Tuple t) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] instanceof int[])
+                ((int[]) columns[i])[row] = ((IntField) t.getField(i)).getValue();
+            else
+                ((String[]) columns[i])[row] = ((StringField) t.getField(i)).getValue();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        load();
+        TupleDesc other = t.getTupleDesc();
+        if (other.numFields() != td.numFields())
+            throw new DbException("tuple does not match the table's schema");
+        for (int i = 0; i < td.numFields(); i++) {
+            if (other.getFieldType(i) != td.getFieldType(i))
+                throw new DbException("tuple does not match the table's schema");
+        }
+        // reuse the first free row, if any
+        int row = live.nextClearBit(0);
+        if (row == size) {
+            if (size == capacity)
+                grow(capacity * 2);
+            size++;
+        }
+        writeRow(row, t);
+        live.set(row);
+        numRows++;
+        changed = true;
+        t.setRecordId(ridOf(row));
+        return new ArrayList<Page>();
+    }
+
+    // see DbFile.java for javadocs
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        int count = 0;
+        while (tuples.hasNext()) {
+            insertTuple(tid, tuples.next());
+            count++;
+        }
+        return count;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        load();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != id)
+            throw new DbException("tuple is not in this table");
+        if (!live.get(rid.tupleno()))
+            throw new DbException("tuple " + t + " was already deleted");
+        live.clear(rid.tupleno());
+        numRows--;
+        changed = true;
+        t.setRecordId(null);
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Reads the snapshot, the first time the table is used. If reading
+     * fails, the table stays unloaded, so it is neither used nor written
+     * over the snapshot by {@link #checkpoint}, and the next use retries.
+     */
+    private synchronized void load() throws DbException {
+        if (loaded)
+            return;
+        if (snapshot == null || !snapshot.exists()) {
+            loaded = true;
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(snapshot)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != td.numFields())
+                    throw new DbException("not a snapshot of this table: " + snapshot);
+                int rows = in.readInt();
+                if (rows > capacity)
+                    grow(rows);
+                for (int i = 0; i < columns.length; i++) {
+                    if (columns[i] instanceof int[]) {
+                        int[] c = (int[]) columns[i];
+                        for (int r = 0; r < rows; r++)
+                            c[r] = in.readInt();
+                    } else {
+                        String[] c = (String[]) columns[i];
+                        for (int r = 0; r < rows; r++)
+                            c[r] = in.readUTF();
+                    }
+                }
+                size = rows;
+                numRows = rows;
+                live.set(0, rows);
+                loaded = true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new DbException("error reading snapshot " + snapshot + ": " + e);
+        }
+    }
+
+    /**
+     * Writes the table to its snapshot file, column by column, replacing the
+     * old snapshot atomically. Does nothing if the table has no snapshot
+     * file or hasn't changed since it was last written.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (snapshot == null || !loaded || !changed)
+            return;
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(td.numFields());
+            out.writeInt(numRows);
+            // deleted rows are left out
+            for (int i = 0; i < columns.length; i++) {
+                for (int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r + 1)) {
+                    if (columns[i] instanceof int[])
+                        out.writeInt(((int[]) columns[i])[r]);
+                    else
+                        out.writeUTF(((String[]) columns[i])[r]);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        snapshot.delete();
+        if (!tmp.renameTo(snapshot))
+            throw new IOException("can't rename " + tmp + " to " + snapshot);
+        changed = false;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new MemoryIterator();
+    }
+
+    /** Reads the live rows in row order. */
+    private class MemoryIterator extends AbstractDbFileIterator {
+
+        private int row;
+        private boolean open;
+
+        public void open() throws DbException {
+            load();
+            row = 0;
+            open = true;
+        }
+
+        protected Tuple readNext() {
+            if (!open)
+                return null;
+            synchronized (MemoryTable.this) {
+                int r = live.nextSetBit(row);
+                if (r < 0 || r >= size)
+                    return null;
+                row = r + 1;
+                return readRow(r);
+            }
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            open = false;
+        }
+    }
+}
@@ -59,11 +59,25 @@ public class OrderBy extends Operator {
         // load all the tuples in a collection, and sort it
         while (child.hasNext())
             childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
+        // a scan of a clustered table already returns its key in order
+        if (!isSorted(child, orderByField))
+            Collections.sort(childTups, new TupleComparator(orderByField, asc));
+        else if (!asc)
+            Collections.reverse(childTups);
         it = childTups.iterator();
         super.open();
     }
 
+    /**
+     * @return true if it returns its tuples in ascending order of field;
+     *         filters keep the order of their child
+     */
+    static boolean isSorted(DbIterator it, int field) {
+        if (it instanceof Filter)
+            return isSorted(((Filter) it).getChildren()[0], field);
+        return it instanceof SeqScan && ((SeqScan) it).isSortedOn(field);
+    }
+
     public void close() {
         super.close();
         it = null;
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The on-disk layouts a HeapFile can store its pages in. Every format
+ * treats an all-zero page as empty, so files are extended the same way
+ * regardless of layout.
+ *
+ * @see HeapFile
+ * @see Catalog#loadSchema
+ */
+public enum PageFormat {
+    /** Fixed size slots and a header bitmap; see {@link HeapPage}. */
+    HEAP() {
+        @Override
+        TuplePage createPage(HeapPageId id, byte[] data, TupleDesc td) {
+            return new HeapPage(id, data, td);
+        }
+
+        @Override
+        TuplePage createPage(HeapPageId id, ByteBuffer data, TupleDesc td) {
+            return new HeapPage(id, data, td);
+        }
+    },
+
+    /** A slot directory over variable length tuples; see {@link SlottedHeapPage}. */
+    SLOTTED() {
+        @Override
+        TuplePage createPage(HeapPageId id, byte[] data, TupleDesc td) {
+            return new SlottedHeapPage(id, data, td);
+        }
+    },
+
+    /** HeapPage slots with each column in its own minipage; see {@link PaxHeapPage}. */
+    PAX() {
+        @Override
+        TuplePage createPage(HeapPageId id, byte[] data, TupleDesc td) {
+            return new PaxHeapPage(id, data, td);
+        }
+
+        @Override
+        TuplePage createPage(HeapPageId id, ByteBuffer data, TupleDesc td) {
+            return new PaxHeapPage(id, data, td);
+        }
+    };
+
+    /**
+     * Creates a page in this format from bytes read from disk. The schema
+     * of the page is looked up in the catalog.
+     *
+     * @param id the id of the page
+     * @param data the page contents
+     */
+    public TuplePage createPage(HeapPageId id, byte[] data) {
+        return createPage(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Creates a page in this format holding tuples of td, which need not be
+     * the schema of a table in the catalog.
+     */
+    abstract TuplePage createPage(HeapPageId id, byte[] data, TupleDesc td);
+
+    /**
+     * Creates a page in this format from a read-only view of a memory
+     * mapped page. Formats that can't read from the view directly copy it.
+     *
+     * @param id the id of the page
+     * @param data the page contents, from position 0 to the capacity
+     */
+    public TuplePage createPage(HeapPageId id, ByteBuffer data) {
+        return createPage(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    TuplePage createPage(HeapPageId id, ByteBuffer data, TupleDesc td) {
+        byte[] copy = new byte[data.capacity()];
+        ByteBuffer buf = data.duplicate();
+        buf.clear();
+        buf.get(copy);
+        return createPage(id, copy, td);
+    }
+}
@@ -598,6 +598,7 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
 
     protected void shutdown() {
+        Database.getCatalog().clear();
         System.out.println("Bye");
     }
 
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapPage is a HeapFile page in the PAX (Partition Attributes Across)
+ * layout: the page holds the same slots as a HeapPage, but each column is
+ * stored contiguously in its own minipage, so a scan that only looks at a
+ * few columns reads only the bytes of those columns.
+ * <p>
+ * The layout of a page is the slot header bitmap of a HeapPage, followed
+ * by one minipage per field of the TupleDesc, in field order. The minipage
+ * of field j holds the values of field j for every slot, numSlots *
+ * td.getFieldType(j).getLen() bytes.
+ * <p>
+ * Like those of a HeapPage, tuples returned by this page are decoded
+ * lazily, one field at a time, here from the minipage of each field.
+ *
+ * @see HeapPage
+ * @see PageFormat#PAX
+ */
+public class PaxHeapPage extends HeapPage {
+
+    // offset of the minipage of each field
+    private final int columnOffsets[];
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a PaxHeapPage of a table that isn't (yet) in the catalog.
+     */
+    PaxHeapPage(HeapPageId id, byte[] data, TupleDesc td) {
+        super(id, data, td);
+        columnOffsets = computeColumnOffsets();
+    }
+
+    /**
+     * Create a PaxHeapPage that reads from a read-only view of a memory
+     * mapped page.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer, TupleDesc)
+     */
+    PaxHeapPage(HeapPageId id, ByteBuffer mapped, TupleDesc td) {
+        super(id, mapped, td);
+        columnOffsets = computeColumnOffsets();
+    }
+
+    private int[] computeColumnOffsets() {
+        int[] offsets = new int[td.numFields()];
+        offsets[0] = headerSize;
+        for (int j=1; j<offsets.length; j++)
+            offsets[j] = offsets[j-1] + numSlots * td.getFieldType(j-1).getLen();
+        return offsets;
+    }
+
+    /**
+     * Offset into the page data of field fieldIndex of slot slotId, inside
+     * the minipage of that field.
+     */
+    @Override
+    int fieldOffset(int slotId, int fieldIndex) {
+        return columnOffsets[fieldIndex] + slotId * td.getFieldType(fieldIndex).getLen();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    @Override
+    public PaxHeapPage getBeforeImage(){
+        return new PaxHeapPage(pid, getBeforeImageData(), td);
+    }
+}
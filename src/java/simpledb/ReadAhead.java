@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead prefetches pages into a BufferPool on a background I/O thread,
+ * ahead of scans that declared they read a file front to back (see
+ * {@link HeapFile#sequentialIterator}).
+ * <p>
+ * A sequential scan asks for the current read-ahead window and prefetches
+ * that many pages past the one it is reading. The window adapts when
+ * adaptive mode is on: it doubles, up to the maximum window, whenever a
+ * scan has to wait for a page that is still being prefetched, and halves
+ * whenever a prefetched page is evicted before anyone reads it.
+ * <p>
+ * Prefetching does not take locks; a scan still calls
+ * {@link BufferPool#getPage} for every page it reads.
+ *
+ * @see BufferPool#getReadAhead
+ */
+public class ReadAhead {
+
+    /** Initial number of pages prefetched ahead of a sequential scan. */
+    public static final int DEFAULT_WINDOW = 4;
+
+    /** Largest window adaptive read-ahead grows to. */
+    public static final int DEFAULT_MAX_WINDOW = 32;
+
+    private final BufferPool pool;
+    private final ThreadPoolExecutor io;
+    // pages waiting for the I/O thread
+    private final ConcurrentHashMap<PageId, Boolean> queued =
+        new ConcurrentHashMap<PageId, Boolean>();
+
+    private int window = DEFAULT_WINDOW;
+    private int maxWindow = DEFAULT_MAX_WINDOW;
+    private boolean adaptive = true;
+
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong lateHits = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+
+    ReadAhead(BufferPool pool) {
+        this.pool = pool;
+        // a single thread that goes away when idle, so buffer pools that are
+        // replaced (e.g. by Database.resetBufferPool) don't leak threads
+        io = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ReadAhead");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        io.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues pid to be read into the buffer pool in the background. Does
+     * nothing if the page is already cached or being read.
+     */
+    public void prefetch(final PageId pid) {
+        if (pool.isCached(pid) || queued.putIfAbsent(pid, Boolean.TRUE) != null)
+            return;
+        io.execute(new Runnable() {
+            public void run() {
+                if (queued.remove(pid) != null)
+                    pool.prefetchPage(pid);
+            }
+        });
+    }
+
+    /**
+     * Drops a queued prefetch of pid, because the page was requested before
+     * the I/O thread got to it.
+     */
+    void cancel(PageId pid) {
+        if (!queued.isEmpty())
+            queued.remove(pid);
+    }
+
+    /**
+     * @return the number of pages a sequential scan should currently keep
+     *         prefetched ahead of itself. Never more than half the buffer
+     *         pool, so read-ahead doesn't evict the pages it just read.
+     */
+    public int getWindow() {
+        return getWindow(BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the window for a scan of a table with pages of pageSize
+     *         bytes, which is smaller than the default one for tables with
+     *         large pages
+     * @see #getWindow()
+     */
+    public synchronized int getWindow(int pageSize) {
+        return (int) Math.min(window, pool.getCapacity() / 2 / pageSize);
+    }
+
+    /**
+     * Sets the read-ahead window; 0 turns read-ahead off. In adaptive mode
+     * this is the starting point the window adapts from.
+     */
+    public synchronized void setWindow(int pages) {
+        window = Math.max(0, Math.min(pages, maxWindow));
+    }
+
+    /** Sets the largest window adaptive read-ahead may grow to. */
+    public synchronized void setMaxWindow(int pages) {
+        maxWindow = Math.max(0, pages);
+        window = Math.min(window, maxWindow);
+    }
+
+    /** Turns adapting the window to hits and waste on or off. */
+    public synchronized void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /** @return the number of pages read by read-ahead */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /** @return the number of prefetched pages that were later requested */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of hits where the requester still had to wait for
+     *         the prefetch to finish
+     */
+    public long getLateHits() {
+        return lateHits.get();
+    }
+
+    /** @return the number of prefetched pages evicted before being requested */
+    public long getWasted() {
+        return wasted.get();
+    }
+
+    /** Resets all counters to zero. */
+    public void resetCounters() {
+        prefetched.set(0);
+        hits.set(0);
+        lateHits.set(0);
+        wasted.set(0);
+    }
+
+    void countPrefetch() {
+        prefetched.incrementAndGet();
+    }
+
+    synchronized void countHit(boolean late) {
+        hits.incrementAndGet();
+        if (late) {
+            lateHits.incrementAndGet();
+            if (adaptive)
+                window = Math.min(maxWindow, Math.max(1, window * 2));
+        }
+    }
+
+    synchronized void countWaste() {
+        wasted.incrementAndGet();
+        if (adaptive && window > 1)
+            window /= 2;
+    }
+}
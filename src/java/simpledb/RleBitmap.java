@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * RleBitmap is a set of non-negative longs stored as runs of consecutive
+ * set bits, i.e. a run-length encoded bitmap. The bitmaps of a column with
+ * few distinct values are mostly long runs, so each one takes space in
+ * proportion to its number of runs rather than to the size of the table,
+ * and {@link #and} and {@link #or} merge two bitmaps run by run.
+ * <p>
+ * Runs are kept sorted, disjoint and separated by at least one clear bit.
+ * Setting a bit at the end of the bitmap, as appending a tuple to a table
+ * does, takes constant time; other updates shift the runs after the bit.
+ *
+ * @see BitmapIndex
+ */
+public class RleBitmap {
+
+    // run i covers the bits starts[i] (inclusive) to ends[i] (exclusive)
+    private long[] starts;
+    private long[] ends;
+    private int numRuns;
+
+    /** Creates an empty bitmap. */
+    public RleBitmap() {
+        starts = new long[4];
+        ends = new long[4];
+    }
+
+    /** Creates a bitmap holding the same bits as b. */
+    public RleBitmap(RleBitmap b) {
+        starts = b.starts.clone();
+        ends = b.ends.clone();
+        numRuns = b.numRuns;
+    }
+
+    /** @return the number of runs of set bits */
+    public int numRuns() {
+        return numRuns;
+    }
+
+    /** @return the number of set bits */
+    public long cardinality() {
+        long n = 0;
+        for (int i = 0; i < numRuns; i++)
+            n += ends[i] - starts[i];
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return numRuns == 0;
+    }
+
+    /** @return the index of the last run starting at or before bit, or -1 */
+    private int runAtOrBefore(long bit) {
+        int lo = 0, hi = numRuns;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= bit)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo - 1;
+    }
+
+    public boolean get(long bit) {
+        int i = runAtOrBefore(bit);
+        return i >= 0 && bit < ends[i];
+    }
+
+    /** @return the first set bit at or after from, or -1 if there is none */
+    public long nextSetBit(long from) {
+        int i = runAtOrBefore(from);
+        if (i >= 0 && from < ends[i])
+            return from;
+        return i + 1 < numRuns ? starts[i + 1] : -1;
+    }
+
+    private void grow() {
+        if (numRuns < starts.length)
+            return;
+        long[] s = new long[starts.length * 2];
+        long[] e = new long[ends.length * 2];
+        System.arraycopy(starts, 0, s, 0, numRuns);
+        System.arraycopy(ends, 0, e, 0, numRuns);
+        starts = s;
+        ends = e;
+    }
+
+    /** Inserts the run [start, end) before run i. */
+    private void insertRun(int i, long start, long end) {
+        grow();
+        System.arraycopy(starts, i, starts, i + 1, numRuns - i);
+        System.arraycopy(ends, i, ends, i + 1, numRuns - i);
+        starts[i] = start;
+        ends[i] = end;
+        numRuns++;
+    }
+
+    private void removeRun(int i) {
+        System.arraycopy(starts, i + 1, starts, i, numRuns - i - 1);
+        System.arraycopy(ends, i + 1, ends, i, numRuns - i - 1);
+        numRuns--;
+    }
+
+    /**
+     * Sets a bit.
+     *
+     * @return false if the bit was already set
+     */
+    public boolean set(long bit) {
+        if (bit < 0)
+            throw new IllegalArgumentException("negative bit " + bit);
+        int i = runAtOrBefore(bit);
+        if (i >= 0 && bit < ends[i])
+            return false;
+        boolean joinsLeft = i >= 0 && ends[i] == bit;
+        boolean joinsRight = i + 1 < numRuns && starts[i + 1] == bit + 1;
+        if (joinsLeft && joinsRight) {
+            ends[i] = ends[i + 1];
+            removeRun(i + 1);
+        } else if (joinsLeft) {
+            ends[i] = bit + 1;
+        } else if (joinsRight) {
+            starts[i + 1] = bit;
+        } else {
+            insertRun(i + 1, bit, bit + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Clears a bit.
+     *
+     * @return false if the bit wasn't set
+     */
+    public boolean clear(long bit) {
+        int i = runAtOrBefore(bit);
+        if (i < 0 || bit >= ends[i])
+            return false;
+        if (starts[i] == bit && ends[i] == bit + 1) {
+            removeRun(i);
+        } else if (starts[i] == bit) {
+            starts[i] = bit + 1;
+        } else if (ends[i] == bit + 1) {
+            ends[i] = bit;
+        } else {
+            insertRun(i + 1, bit + 1, ends[i]);
+            ends[i] = bit;
+        }
+        return true;
+    }
+
+    /** Appends the run [start, end), which must not begin before the last run. */
+    private void append(long start, long end) {
+        if (numRuns > 0 && start <= ends[numRuns - 1]) {
+            ends[numRuns - 1] = Math.max(ends[numRuns - 1], end);
+            return;
+        }
+        grow();
+        starts[numRuns] = start;
+        ends[numRuns] = end;
+        numRuns++;
+    }
+
+    /** @return a new bitmap of the bits set in both this bitmap and b */
+    public RleBitmap and(RleBitmap b) {
+        RleBitmap r = new RleBitmap();
+        int i = 0, j = 0;
+        while (i < numRuns && j < b.numRuns) {
+            long s = Math.max(starts[i], b.starts[j]);
+            long e = Math.min(ends[i], b.ends[j]);
+            if (s < e)
+                r.append(s, e);
+            if (ends[i] < b.ends[j])
+                i++;
+            else
+                j++;
+        }
+        return r;
+    }
+
+    /** @return a new bitmap of the bits set in this bitmap or b */
+    public RleBitmap or(RleBitmap b) {
+        RleBitmap r = new RleBitmap();
+        int i = 0, j = 0;
+        while (i < numRuns || j < b.numRuns) {
+            if (j == b.numRuns || (i < numRuns && starts[i] <= b.starts[j])) {
+                r.append(starts[i], ends[i]);
+                i++;
+            } else {
+                r.append(b.starts[j], b.ends[j]);
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** Writes the runs to out. */
+    public void serialize(DataOutputStream out) throws IOException {
+        out.writeInt(numRuns);
+        for (int i = 0; i < numRuns; i++) {
+            out.writeLong(starts[i]);
+            out.writeLong(ends[i] - starts[i]);
+        }
+    }
+
+    /** Reads a bitmap written by {@link #serialize}. */
+    public static RleBitmap deserialize(DataInputStream in) throws IOException {
+        RleBitmap b = new RleBitmap();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            long start = in.readLong();
+            b.append(start, start + in.readLong());
+        }
+        return b;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof RleBitmap))
+            return false;
+        RleBitmap b = (RleBitmap) o;
+        if (numRuns != b.numRuns)
+            return false;
+        for (int i = 0; i < numRuns; i++) {
+            if (starts[i] != b.starts[i] || ends[i] != b.ends[i])
+                return false;
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        long h = numRuns;
+        for (int i = 0; i < numRuns; i++)
+            h = h * 31 + starts[i] * 17 + ends[i];
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < numRuns; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(starts[i]);
+            if (ends[i] - starts[i] > 1)
+                sb.append("-").append(ends[i] - 1);
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -15,7 +15,7 @@ public class SeqScan implements DbIterator {
 	private int tableId;
 	private String tableAlias;
 
-	private HeapFile heapFile;
+	private DbFile file;
 	
 	private Catalog c;
 
@@ -23,6 +23,12 @@ public class SeqScan implements DbIterator {
 
 	private DbFileIterator fileIt;
 
+	// predicates pushed down into the scan, and the next tuple satisfying them
+	private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+	private Tuple nextTuple;
+	// set once a scan in key order has passed the last key that can match
+	private boolean pastEnd;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -48,11 +54,45 @@ public class SeqScan implements DbIterator {
 
 		this.td = c.getTupleDesc(tableid);
 
-		this.heapFile = (HeapFile) c.getDatabaseFile(tableid);
+		this.file = c.getDatabaseFile(tableid);
 
-		
+		// a scan reads every page in order, so let the pages ahead of it be prefetched
+		if (this.file instanceof HeapFile)
+			this.fileIt = ((HeapFile) this.file).sequentialIterator(tid, predicates);
+		else
+			this.fileIt = this.file.iterator(tid);
+    }
+
+    /**
+     * Pushes a predicate down into this scan: only tuples that satisfy it
+     * are returned, and pages whose {@link ZoneMap} ranges show that none
+     * of their tuples can are not read at all. On a
+     * {@link ClusteredBTreeFile}, a predicate on the key makes the scan
+     * read only the leaves in its range. Must be called before
+     * {@link #open}.
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
 
-		this.fileIt = this.heapFile.iterator(tid);
+    /**
+     * @return the number of pages this scan has skipped because of the
+     *         predicates pushed down into it
+     */
+    public int getPagesSkipped() {
+        if (!(file instanceof HeapFile))
+            return 0;
+        return HeapFile.getPagesSkipped(fileIt);
+    }
+
+    /**
+     * @return true if this scan returns its tuples in ascending order of
+     *         field, as a scan of a {@link ClusteredBTreeFile} does for its
+     *         key
+     */
+    public boolean isSortedOn(int field) {
+        return file instanceof ClusteredBTreeFile
+            && ((ClusteredBTreeFile) file).getKeyField() == field;
     }
 
     /**
@@ -94,16 +134,29 @@ public class SeqScan implements DbIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
+		if (file instanceof ClusteredBTreeFile) {
+			// start at the first leaf a lower bound on the key selects;
+			// hasNext stops at the first key past an upper bound
+			ClusteredBTreeFile tree = (ClusteredBTreeFile) file;
+			for (Predicate p : predicates) {
+				if (p.getField() == tree.getKeyField() && p.getOp() != Predicate.Op.LESS_THAN
+						&& p.getOp() != Predicate.Op.LESS_THAN_OR_EQ && tree.supports(p.getOp())) {
+					this.fileIt = tree.indexIterator(transactionId, p.getOp(), p.getOperand());
+					break;
+				}
+			}
+		}
+		pastEnd = false;
 		this.fileIt.open();
     }
 
     /**
-     * Returns the TupleDesc with field names from the underlying HeapFile,
+     * Returns the TupleDesc with field names from the underlying DbFile,
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
      * name.
      * 
-     * @return the TupleDesc with field names from the underlying HeapFile,
+     * @return the TupleDesc with field names from the underlying DbFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
@@ -111,20 +164,75 @@ public class SeqScan implements DbIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return this.fileIt.hasNext();
+        if (predicates.isEmpty())
+            return this.fileIt.hasNext();
+        while (nextTuple == null && !pastEnd && this.fileIt.hasNext()) {
+            Tuple t = this.fileIt.next();
+            if (matches(t))
+                nextTuple = t;
+            else
+                pastEnd = isPastEnd(t);
+        }
+        return nextTuple != null;
+    }
+
+    /**
+     * @return true if this scan is in key order and t's key is beyond an
+     *         upper bound on the key, so no later tuple can match
+     */
+    private boolean isPastEnd(Tuple t) {
+        if (!(file instanceof ClusteredBTreeFile))
+            return false;
+        int key = ((ClusteredBTreeFile) file).getKeyField();
+        for (Predicate p : predicates) {
+            if (p.getField() != key)
+                continue;
+            Field f = t.getField(key);
+            switch (p.getOp()) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                if (f.compare(Predicate.Op.GREATER_THAN, p.getOperand()))
+                    return true;
+                break;
+            case LESS_THAN:
+                if (f.compare(Predicate.Op.GREATER_THAN_OR_EQ, p.getOperand()))
+                    return true;
+                break;
+            default:
+                break;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return this.fileIt.next();
+        if (predicates.isEmpty())
+            return this.fileIt.next();
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = nextTuple;
+        nextTuple = null;
+        return t;
     }
 
     public void close() {
 		this.fileIt.close();
+		nextTuple = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+		nextTuple = null;
+		pastEnd = false;
 		this.fileIt.rewind();
     }
 }
@@ -7,7 +7,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -16,6 +16,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            int pageSize=BufferPool.getPageSize();
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -39,12 +40,15 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                if (args.length==6)
+                    pageSize=Integer.parseInt(args[5]);
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+                        pageSize,numOfAttributes,ts,fieldSeparator,
+                        PageFormat.HEAP,System.out);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -67,6 +71,17 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("compact")) {
+            File tableFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            HeapFile table = Utility.openHeapFile(columns, tableFile);
+            Transaction t = new Transaction();
+            t.start();
+            HeapFileCompactor.Result r = HeapFileCompactor.compact(t.getId(), table);
+            t.commit();
+            System.out.println("Compacted " + tableFile + ": " + r);
+            table.close();
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,418 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * SlottedHeapPage is a HeapFile page that stores tuples with variable
+ * length strings, so short strings don't pay for Type.STRING_LEN bytes of
+ * padding. It implements the Page interface that is used by BufferPool.
+ * <p>
+ * The layout of a page is:
+ * <ul>
+ * <li> an int, the number of entries in the slot directory
+ * <li> an int, the number of bytes of tuple data at the end of the page
+ * <li> the slot directory: one int per slot, holding the offset of the
+ *      slot's tuple in the page, or 0 if the slot is empty
+ * <li> free space
+ * <li> tuple data, growing down from the end of the page
+ * </ul>
+ * A tuple is stored as its fields in order; int fields take 4 bytes and
+ * string fields a 2 byte length followed by that many bytes. An all-zero
+ * page is a valid empty page.
+ * <p>
+ * Deleting a tuple leaves a hole in the tuple data that is reclaimed by
+ * compacting the page when an insert needs the space. Compaction keeps
+ * slot numbers, so RecordIds stay valid.
+ *
+ * @see HeapFile
+ * @see PageFormat#SLOTTED
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    static final int HEADER_SIZE = 8;
+    static final int SLOT_SIZE = 4;
+    static final int STRING_LEN_SIZE = 2;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int pageSize;
+    // the largest encoded size of a tuple of td
+    final int maxTupleSize;
+
+    // the serialized image of this page, which is the source of truth;
+    // tuples only caches slots decoded from it. Until the page is first
+    // modified this is the same array as oldData.
+    byte[] data;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    private int numUsed;
+    private int liveBytes;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private volatile TransactionId m_tid;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The TupleDesc of the page is looked up in the catalog. As with
+     * HeapPage, the caller must not modify data afterwards.
+     *
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedHeapPage of a table that isn't (yet) in the catalog.
+     * The page size is the length of data.
+     */
+    SlottedHeapPage(HeapPageId id, byte[] data, TupleDesc td) {
+        this.pid = id;
+        this.td = td;
+        this.pageSize = data.length;
+        this.data = data;
+
+        int max = 0;
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                max += STRING_LEN_SIZE + Type.STRING_LEN;
+            else
+                max += td.getFieldType(j).getLen();
+        }
+        maxTupleSize = max;
+
+        for (int i=0; i<numSlots(); i++) {
+            int off = slotOffset(i);
+            if (off != 0) {
+                numUsed++;
+                liveBytes += tupleLength(off);
+            }
+        }
+
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
+    }
+
+    /** @return the number of entries in the slot directory */
+    private int numSlots() {
+        return Type.readInt(data, 0);
+    }
+
+    /** @return the number of bytes at the end of the page used by tuples, including holes */
+    private int dataBytes() {
+        return Type.readInt(data, 4);
+    }
+
+    private int slotOffset(int i) {
+        return Type.readInt(data, HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int readShort(int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    /** @return the number of contiguous free bytes between directory and tuple data */
+    private int freeSpace() {
+        return pageSize - HEADER_SIZE - numSlots() * SLOT_SIZE - dataBytes();
+    }
+
+    /** @return the free space there would be after compacting the page */
+    private int reclaimableSpace() {
+        return pageSize - HEADER_SIZE - numSlots() * SLOT_SIZE - liveBytes;
+    }
+
+    /** @return the number of bytes of the tuple stored at off */
+    private int tupleLength(int off) {
+        int pos = off;
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                pos += STRING_LEN_SIZE + readShort(pos);
+            else
+                pos += td.getFieldType(j).getLen();
+        }
+        return pos - off;
+    }
+
+    /** @return the number of bytes t takes on this page */
+    private int encodedSize(Tuple t) {
+        int size = 0;
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                size += STRING_LEN_SIZE + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    private Tuple readTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int pos = slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int len = readShort(pos);
+                t.setField(j, new StringField(new String(data, pos + STRING_LEN_SIZE, len), Type.STRING_LEN));
+                pos += STRING_LEN_SIZE + len;
+            } else {
+                t.setField(j, td.getFieldType(j).parse(data, pos));
+                pos += td.getFieldType(j).getLen();
+            }
+        }
+        return t;
+    }
+
+    private void writeTuple(Tuple t, int off) {
+        int pos = off;
+        for (int j=0; j<td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                data[pos] = (byte) (s.length() >>> 8);
+                data[pos + 1] = (byte) s.length();
+                pos += STRING_LEN_SIZE;
+                for (int i=0; i<s.length(); i++)
+                    data[pos++] = (byte) s.charAt(i);
+            } else {
+                f.serialize(data, pos);
+                pos += td.getFieldType(j).getLen();
+            }
+        }
+    }
+
+    /**
+     * Moves all live tuples to the end of the page, so that the holes left
+     * by deleted tuples become contiguous free space. Slot numbers are kept.
+     */
+    private void compact() {
+        byte[] packed = new byte[liveBytes];
+        int end = liveBytes;
+        int n = numSlots();
+        for (int i=0; i<n; i++) {
+            int off = slotOffset(i);
+            if (off == 0)
+                continue;
+            int len = tupleLength(off);
+            end -= len;
+            System.arraycopy(data, off, packed, end, len);
+            Type.writeInt(data, HEADER_SIZE + i * SLOT_SIZE, pageSize - liveBytes + end);
+        }
+        int dataStart = HEADER_SIZE + n * SLOT_SIZE;
+        Arrays.fill(data, dataStart, pageSize - liveBytes, (byte) 0);
+        System.arraycopy(packed, 0, data, pageSize - liveBytes, liveBytes);
+        Type.writeInt(data, 4, liveBytes);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage(){
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        return new SlottedHeapPage(pid, oldDataRef, td);
+    }
+
+    public void setBeforeImage() {
+        // share the current image; it is copied on the next modification
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
+    }
+
+    /**
+     * Must be called before modifying data in place; see HeapPage.
+     */
+    private void beginWrite() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == data)
+            data = data.clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the SlottedHeapPage constructor produces an identical
+     * page.
+     */
+    public byte[] getPageData() {
+        synchronized(oldDataLock)
+        {
+        return data.clone();
+        }
+    }
+
+    // see TuplePage.java for javadocs
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid))
+            throw new DbException("tuple not found / slot empty");
+        int i = rid.tupleno();
+        if (i < 0 || i >= numSlots() || slotOffset(i) == 0)
+            throw new DbException("tuple not found / slot empty");
+
+        // a slot read from disk may never have been decoded on this object
+        if (i < tuples.size())
+            tuples.set(i, null);
+        beginWrite();
+        int off = slotOffset(i);
+        int len = tupleLength(off);
+        Arrays.fill(data, off, off + len, (byte) 0);
+        Type.writeInt(data, HEADER_SIZE + i * SLOT_SIZE, 0);
+        // the lowest tuple can be given back right away
+        if (off == pageSize - dataBytes())
+            Type.writeInt(data, 4, dataBytes() - len);
+        // so can empty slots at the end of the directory
+        int n = numSlots();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        Type.writeInt(data, 0, n);
+
+        numUsed--;
+        liveBytes -= len;
+        t.setRecordId(null);
+    }
+
+    // see TuplePage.java for javadocs
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is a mismatch");
+
+        int n = numSlots();
+        int slot = -1;
+        if (numUsed < n) {
+            for (int i=0; i<n; i++) {
+                if (slotOffset(i) == 0) {
+                    slot = i;
+                    break;
+                }
+            }
+        }
+        int size = encodedSize(t);
+        int needed = size + (slot < 0 ? SLOT_SIZE : 0);
+        if (reclaimableSpace() < needed)
+            throw new DbException("not enough free space on page");
+
+        beginWrite();
+        if (freeSpace() < needed)
+            compact();
+        if (slot < 0) {
+            slot = n;
+            Type.writeInt(data, 0, n + 1);
+        }
+        int off = pageSize - dataBytes() - size;
+        writeTuple(t, off);
+        Type.writeInt(data, 4, dataBytes() + size);
+        Type.writeInt(data, HEADER_SIZE + slot * SLOT_SIZE, off);
+
+        numUsed++;
+        liveBytes += size;
+        while (tuples.size() <= slot)
+            tuples.add(null);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_tid = null;
+        if (dirty == true)
+            m_tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return m_tid;
+    }
+
+    /**
+     * Returns how many more tuples of the largest possible size fit on this
+     * page, counting space that compaction would reclaim. Smaller tuples may
+     * still fit when this returns 0.
+     */
+    public int getNumEmptySlots() {
+        int avail = reclaimableSpace();
+        int reusable = numSlots() - numUsed;
+        int n = Math.min(reusable, avail / maxTupleSize);
+        if (n < reusable)
+            return n;
+        return n + (avail - n * maxTupleSize) / (maxTupleSize + SLOT_SIZE);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * Return the tuple from a specified index, decoding it from the page
+     * data if it hasn't been accessed yet. Returns null for an empty slot.
+     */
+    public Tuple getTupleFromSlot(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        while (tuples.size() <= i)
+            tuples.add(null);
+        Tuple t = tuples.get(i);
+        if (t == null) {
+            t = readTuple(i);
+            tuples.set(i, t);
+        }
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int index = 0;
+
+            private int nextUsed() {
+                int n = numSlots();
+                while (index < n && slotOffset(index) == 0)
+                    index++;
+                return index < n ? index : -1;
+            }
+
+            public boolean hasNext() {
+                return nextUsed() >= 0;
+            }
+
+            public Tuple next() {
+                int i = nextUsed();
+                if (i < 0)
+                    throw new NoSuchElementException();
+                index = i + 1;
+                return getTupleFromSlot(i);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,20 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into data at offset, in the same maxSize + 4 byte
+	 * format as {@link #serialize(DataOutputStream)}.
+	 */
+	public void serialize(byte[] data, int offset) {
+		String s = value;
+		if (s.length() > maxSize)
+			s = s.substring(0, maxSize);
+		Type.writeInt(data, offset, s.length());
+		for (int i = 0; i < s.length(); i++)
+			data[offset + 4 + i] = (byte) s.charAt(i);
+		Arrays.fill(data, offset + 4 + s.length(), offset + 4 + maxSize, (byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
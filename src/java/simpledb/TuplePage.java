@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TuplePage is the interface HeapFile uses to manipulate the tuples stored
+ * on one of its pages, independently of how the page lays them out.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ * @see PaxHeapPage
+ * @see PageFormat
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page has no room for the tuple or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of tuples that can still be inserted into this page.
+     * Pages with variable length tuples may return a conservative estimate,
+     * but must be able to take at least one more tuple whenever this is
+     * non-zero.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Returns the tuple in slot i of this page, e.g. the tuple a RecordId
+     * with tupleno i points at, or null if the slot is empty.
+     */
+    public Tuple getTupleFromSlot(int i);
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
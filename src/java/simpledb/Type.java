@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,23 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = readInt(data, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            int strLen = data.getInt(offset);
+            byte bs[] = new byte[strLen];
+            // duplicate so concurrent readers don't share a position
+            ByteBuffer buf = data.duplicate();
+            buf.position(offset + 4);
+            buf.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +88,33 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   decoded from getLen() bytes of data, starting at offset. The layout is
+   *   the same as the one read by {@link #parse(DataInputStream)}.
+   * @param data The buffer to decode from
+   * @param offset The index of the first byte of the field in data
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * Like {@link #parse(byte[], int)}, decoding from a big-endian buffer
+   * without changing its position.
+   */
+    public abstract Field parse(ByteBuffer data, int offset);
+
+    /** Writes a big-endian int, as DataOutputStream.writeInt does. */
+    static void writeInt(byte[] data, int offset, int v) {
+        data[offset] = (byte) (v >>> 24);
+        data[offset + 1] = (byte) (v >>> 16);
+        data[offset + 2] = (byte) (v >>> 8);
+        data[offset + 3] = (byte) v;
+    }
+
+    /** Reads a big-endian int, as written by DataOutputStream.writeInt. */
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+            | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WriteBehind is a background writer that trickles the dirty pages of a
+ * BufferPool out to disk, so that queries rarely have to wait for a write
+ * before a page can be evicted.
+ * <p>
+ * The writer is off until a rate is set. It then wakes up every
+ * {@link #TICK_MS} milliseconds and writes that tick's share of the rate.
+ * When fewer than the clean target of pages are free or clean, it writes
+ * more, up to four times its share, to get back above the target. Dirty
+ * pages are written grouped by table and in page number order, and runs of
+ * consecutive pages are written with a single write.
+ * <p>
+ * Like {@link BufferPool#flushAllPages}, the writer writes pages of
+ * running transactions. A page is marked clean before its contents are
+ * copied, so a page modified while it is being written stays dirty.
+ *
+ * @see BufferPool#getWriteBehind
+ */
+public class WriteBehind {
+
+    /** Milliseconds between rounds of writes. */
+    public static final int TICK_MS = 100;
+
+    /** Default for the largest number of pages written with one write. */
+    public static final int DEFAULT_MAX_RUN = 64;
+
+    private final BufferPool pool;
+
+    private int rate = 0;
+    private int cleanTarget;
+    private int maxRun = DEFAULT_MAX_RUN;
+    private Thread thread;
+
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    WriteBehind(BufferPool pool) {
+        this.pool = pool;
+        cleanTarget = pool.m_numPages / 4;
+    }
+
+    /**
+     * Sets the number of dirty pages to write per second. 0, the default,
+     * stops the writer.
+     */
+    public synchronized void setRate(int pagesPerSecond) {
+        rate = Math.max(0, pagesPerSecond);
+        if (rate > 0 && thread == null) {
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    writeBehind();
+                }
+            }, "WriteBehind");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /** @return the number of dirty pages written per second */
+    public synchronized int getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the number of pages (of the default size) the writer tries to
+     * keep free or clean. Defaults to a quarter of the buffer pool.
+     */
+    public synchronized void setCleanTarget(int pages) {
+        cleanTarget = Math.max(0, pages);
+    }
+
+    /** Sets the largest number of consecutive pages written at once. */
+    public synchronized void setMaxRun(int pages) {
+        maxRun = Math.max(1, pages);
+    }
+
+    private synchronized int getMaxRun() {
+        return maxRun;
+    }
+
+    /** @return the number of pages written by the writer */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * @return the number of writes issued by the writer; less than
+     *         getPagesWritten() when consecutive pages were coalesced
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    private void writeBehind() {
+        while (true) {
+            int pages;
+            synchronized (this) {
+                try {
+                    wait(TICK_MS);
+                } catch (InterruptedException e) {
+                    // check whether to stop
+                }
+                // stop when turned off, or when the pool has been replaced
+                if (rate == 0 || Database.getBufferPool() != pool) {
+                    thread = null;
+                    return;
+                }
+                int budget = Math.max(1, rate * TICK_MS / 1000);
+                int ready = pool.getNumCleanPages();
+                pages = budget;
+                if (ready < cleanTarget)
+                    pages = Math.max(budget, Math.min(cleanTarget - ready, 4 * budget));
+            }
+            try {
+                int[] written = pool.writeDirtyPages(pages, getMaxRun());
+                pagesWritten.addAndGet(written[0]);
+                writes.addAndGet(written[1]);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
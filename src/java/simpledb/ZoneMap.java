@@ -0,0 +1,326 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every int column on each
+ * page of a HeapFile, so that a scan with range predicates can skip the
+ * pages none of whose tuples can match (see {@link HeapFile#sequentialIterator(TransactionId, List)}).
+ * <p>
+ * The HeapFile widens a page's range as tuples are inserted, and summarizes
+ * the page again when a deleted tuple held one of its bounds. Pages the map
+ * knows nothing about, e.g. those of a file written by HeapFileEncoder, are
+ * never skipped; they are summarized the first time a scan reads them. A
+ * range may be wider than the page's values, but never narrower.
+ * <p>
+ * The map is saved next to the data file when the HeapFile is closed, and
+ * only used again if the data file has not changed since.
+ *
+ * @see HeapFile#getZoneMap
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5A4D4150;
+
+    private final File sidecar;
+    private final File dataFile;
+    // the int columns of the table, and each field's position among them
+    private final int[] columns;
+    private final int[] columnOf;
+
+    private boolean loaded = false;
+    private boolean changed = false;
+    private int numPages = 0;
+    // min and max of column k on page p are at p * columns.length + k
+    private int[] min = new int[0];
+    private int[] max = new int[0];
+    private final BitSet known = new BitSet();
+
+    private final AtomicLong pagesSkipped = new AtomicLong();
+
+    /**
+     * @param dataFile the file the HeapFile is stored in
+     * @param td the schema of the HeapFile
+     */
+    ZoneMap(File dataFile, TupleDesc td) {
+        this.dataFile = dataFile;
+        this.sidecar = sidecarFor(dataFile);
+        columnOf = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            columnOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        columns = new int[n];
+        for (int i = 0; i < td.numFields(); i++)
+            if (columnOf[i] >= 0)
+                columns[columnOf[i]] = i;
+    }
+
+    /**
+     * Returns the file the zone map of the data file f is saved in: f with
+     * its .dat extension, if any, replaced by .zonemap.
+     */
+    public static File sidecarFor(File f) {
+        String name = f.getName();
+        if (name.endsWith(".dat"))
+            name = name.substring(0, name.length() - 4);
+        return new File(f.getAbsoluteFile().getParentFile(), name + ".zonemap");
+    }
+
+    /** @return true if the table has int columns to summarize */
+    public boolean isEnabled() {
+        return columns.length > 0;
+    }
+
+    /** @return true if page pgno has a summary */
+    public synchronized boolean isKnown(int pgno) {
+        load();
+        return known.get(pgno);
+    }
+
+    /**
+     * @return the smallest value of field on page pgno, or null if the page
+     *         has no summary, is empty or field is not an int column
+     */
+    public synchronized Integer getMin(int pgno, int field) {
+        int i = index(pgno, field);
+        return i < 0 ? null : Integer.valueOf(min[i]);
+    }
+
+    /**
+     * @return the largest value of field on page pgno, or null if the page
+     *         has no summary, is empty or field is not an int column
+     */
+    public synchronized Integer getMax(int pgno, int field) {
+        int i = index(pgno, field);
+        return i < 0 ? null : Integer.valueOf(max[i]);
+    }
+
+    private int index(int pgno, int field) {
+        load();
+        if (field < 0 || field >= columnOf.length || columnOf[field] < 0 || !known.get(pgno))
+            return -1;
+        int i = pgno * columns.length + columnOf[field];
+        return min[i] > max[i] ? -1 : i;
+    }
+
+    /** @return the number of pages scans have skipped using this map */
+    public long getPagesSkipped() {
+        return pagesSkipped.get();
+    }
+
+    void countSkipped() {
+        pagesSkipped.incrementAndGet();
+    }
+
+    /**
+     * Returns false if no tuple on page pgno can satisfy all of preds, and
+     * true if some might. Predicates on fields other than int columns, and
+     * LIKE, never rule a page out.
+     */
+    public synchronized boolean mayMatch(int pgno, List<Predicate> preds) {
+        load();
+        if (!known.get(pgno))
+            return true;
+        int base = pgno * columns.length;
+        for (Predicate p : preds) {
+            int f = p.getField();
+            if (f < 0 || f >= columnOf.length || columnOf[f] < 0
+                || !(p.getOperand() instanceof IntField))
+                continue;
+            int lo = min[base + columnOf[f]];
+            int hi = max[base + columnOf[f]];
+            if (lo > hi)
+                return false; // the page is empty
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+                if (v < lo || v > hi)
+                    return false;
+                break;
+            case GREATER_THAN:
+                if (hi <= v)
+                    return false;
+                break;
+            case GREATER_THAN_OR_EQ:
+                if (hi < v)
+                    return false;
+                break;
+            case LESS_THAN:
+                if (lo >= v)
+                    return false;
+                break;
+            case LESS_THAN_OR_EQ:
+                if (lo > v)
+                    return false;
+                break;
+            case NOT_EQUALS:
+                if (lo == v && hi == v)
+                    return false;
+                break;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+
+    /** Records that page pgno was just created empty. */
+    synchronized void emptyPage(int pgno) {
+        load();
+        ensurePages(pgno + 1);
+        int base = pgno * columns.length;
+        for (int k = 0; k < columns.length; k++) {
+            min[base + k] = Integer.MAX_VALUE;
+            max[base + k] = Integer.MIN_VALUE;
+        }
+        known.set(pgno);
+        changed = true;
+    }
+
+    /** Widens the range of page pgno, if it has one, to cover t. */
+    synchronized void add(int pgno, Tuple t) {
+        load();
+        if (!known.get(pgno) || columns.length == 0)
+            return;
+        int base = pgno * columns.length;
+        for (int k = 0; k < columns.length; k++) {
+            int v = ((IntField) t.getField(columns[k])).getValue();
+            if (v < min[base + k])
+                min[base + k] = v;
+            if (v > max[base + k])
+                max[base + k] = v;
+        }
+        changed = true;
+    }
+
+    /**
+     * Notes that t was deleted from page, summarizing the page again if t
+     * held one of the bounds of its range.
+     */
+    synchronized void remove(TuplePage page, Tuple t) {
+        load();
+        int pgno = page.getId().pageNumber();
+        if (!known.get(pgno))
+            return;
+        int base = pgno * columns.length;
+        for (int k = 0; k < columns.length; k++) {
+            int v = ((IntField) t.getField(columns[k])).getValue();
+            if (v == min[base + k] || v == max[base + k]) {
+                summarize(page);
+                return;
+            }
+        }
+    }
+
+    /** Computes the exact range of every int column of page. */
+    synchronized void summarize(TuplePage page) {
+        load();
+        if (columns.length == 0)
+            return;
+        int pgno = page.getId().pageNumber();
+        emptyPage(pgno);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            add(pgno, it.next());
+    }
+
+    /** Forgets the summaries of all pages, e.g. after tuples were moved. */
+    synchronized void clear() {
+        loaded = true;
+        known.clear();
+        numPages = 0;
+        min = new int[0];
+        max = new int[0];
+        changed = true;
+    }
+
+    private void ensurePages(int pages) {
+        if (pages <= numPages)
+            return;
+        int cap = Math.max(pages, numPages * 2) * columns.length;
+        if (cap > min.length) {
+            min = Arrays.copyOf(min, cap);
+            max = Arrays.copyOf(max, cap);
+        }
+        numPages = pages;
+    }
+
+    /**
+     * Reads the saved map, unless it is missing, damaged or older than the
+     * data file.
+     */
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (columns.length == 0 || !sidecar.exists())
+            return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(sidecar)));
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != dataFile.length()
+                    || in.readLong() != dataFile.lastModified()
+                    || in.readInt() != columns.length)
+                    return;
+                int pages = in.readInt();
+                ensurePages(pages);
+                for (int p = 0; p < pages; p++) {
+                    if (!in.readBoolean())
+                        continue;
+                    known.set(p);
+                    for (int k = 0; k < columns.length; k++) {
+                        min[p * columns.length + k] = in.readInt();
+                        max[p * columns.length + k] = in.readInt();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // an unreadable map is rebuilt by scanning
+            known.clear();
+        }
+    }
+
+    /**
+     * Writes the map next to the data file if it changed since it was
+     * loaded. Called by {@link HeapFile#close}, after the data file's last
+     * write.
+     */
+    synchronized void save() {
+        if (!changed || columns.length == 0)
+            return;
+        try {
+            if (known.isEmpty()) {
+                sidecar.delete();
+            } else {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(sidecar)));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeLong(dataFile.length());
+                    out.writeLong(dataFile.lastModified());
+                    out.writeInt(columns.length);
+                    out.writeInt(numPages);
+                    for (int p = 0; p < numPages; p++) {
+                        out.writeBoolean(known.get(p));
+                        if (!known.get(p))
+                            continue;
+                        for (int k = 0; k < columns.length; k++) {
+                            out.writeInt(min[p * columns.length + k]);
+                            out.writeInt(max[p * columns.length + k]);
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+            }
+            changed = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
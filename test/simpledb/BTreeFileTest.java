@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends TestUtil.CreateIndexFile {
+    private BTreeFile index;
+
+    /**
+     * Creates an empty index on field 0 of two int field tuples, with small
+     * pages so that a few thousand entries make a tree of several levels.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        index = new BTreeFile(createIndexFile(".idx"), TABLE, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(index);
+    }
+
+    @After public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private static List<RecordId> read(DbFileIterator it) throws Exception {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        it.open();
+        while (it.hasNext())
+            rids.add(it.next().getRecordId());
+        it.close();
+        return rids;
+    }
+
+    /** @return the RecordIds of the tuples with key op value, in index order */
+    private List<RecordId> expected(Collection<Tuple> live, Predicate.Op op, int value) {
+        ArrayList<Tuple> matches = new ArrayList<Tuple>();
+        for (Tuple t : live) {
+            if (op == null || t.getField(0).compare(op, new IntField(value)))
+                matches.add(t);
+        }
+        Collections.sort(matches, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                try {
+                    return index.compare(index.toEntry(a), index.toEntry(b));
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        for (Tuple t : matches)
+            rids.add(t.getRecordId());
+        return rids;
+    }
+
+    private void checkQueries(Collection<Tuple> live) throws Exception {
+        assertEquals(expected(live, null, 0), read(index.iterator(tid)));
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ };
+        int[] values = { -1, 0, 1, KEYS / 2, KEYS - 1, KEYS };
+        for (Predicate.Op op : ops) {
+            for (int v : values)
+                assertEquals(op + " " + v, expected(live, op, v),
+                        read(index.indexIterator(tid, op, new IntField(v))));
+        }
+    }
+
+    /** Inserts split leaves and internal nodes; every query sees every entry. */
+    @Test public void insert() throws Exception {
+        for (Tuple t : tuples)
+            index.insertTuple(tid, t);
+        assertTrue(index.getHeight(tid) >= 3);
+        checkQueries(tuples);
+    }
+
+    /**
+     * Inserts split pages while the pool is crowded with dirty pages, so
+     * the pages an insert holds must stay cached until it has changed
+     * them; the tree read back from disk has every entry.
+     */
+    @Test public void insertUnderPressure() throws Exception {
+        SystemTestUtil.crowdBufferPool(10, tid);
+        for (Tuple t : tuples)
+            index.insertTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        checkQueries(tuples);
+    }
+
+    /** Deleted entries disappear, and deleting a missing entry fails. */
+    @Test public void delete() throws Exception {
+        for (Tuple t : tuples)
+            index.insertTuple(tid, t);
+        LinkedHashSet<Tuple> live = new LinkedHashSet<Tuple>(tuples);
+        for (int i = 0; i < N; i += 2) {
+            index.deleteTuple(tid, tuples.get(i));
+            live.remove(tuples.get(i));
+        }
+        checkQueries(live);
+
+        try {
+            index.deleteTuple(tid, tuples.get(0));
+            fail("deleted an entry twice");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** A bulk loaded tree answers queries like one built by inserts. */
+    @Test public void buildFrom() throws Exception {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        for (Tuple t : tuples)
+            entries.add(index.toEntry(t));
+        Collections.sort(entries, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return index.compare(a, b);
+            }
+        });
+        assertEquals(N, index.buildFrom(entries));
+        assertTrue(index.getHeight(tid) >= 3);
+        checkQueries(tuples);
+
+        // and keeps working after more inserts
+        Tuple t = Utility.getHeapTuple(new int[] { KEYS / 2, -1 });
+        t.setRecordId(new RecordId(new HeapPageId(TABLE, 0), 99));
+        index.insertTuple(tid, t);
+        ArrayList<Tuple> all = new ArrayList<Tuple>(tuples);
+        all.add(t);
+        checkQueries(all);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
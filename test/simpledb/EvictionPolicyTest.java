@@ -0,0 +1,96 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 10;
+    // 504 tuples of two ints fill a page
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private TransactionId tid;
+
+    /** Creates a small table of 4 pages and one of 50 pages, five times the pool. */
+    @Before public void setUp() throws Exception {
+        hot = SystemTestUtil.createRandomHeapFile(2, 4 * TUPLES_PER_PAGE, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 50 * TUPLES_PER_PAGE, null, null);
+        assertEquals(4, hot.numPages());
+        tid = new TransactionId();
+    }
+
+    private static BufferPool pool(EvictionPolicy policy) {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES, policy);
+        // prefetched pages would make the counts depend on timing
+        pool.getReadAhead().setWindow(0);
+        return pool;
+    }
+
+    private void scan(HeapFile f) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+    }
+
+    /**
+     * Reads the hot table twice, scans the big one, and reads the hot table
+     * again.
+     * @return the number of pages of the hot table still in the pool
+     */
+    private long hotPagesAfterScan(EvictionPolicy policy) throws Exception {
+        pool(policy);
+        scan(hot);
+        scan(hot);
+        scan(big);
+        policy.resetCounters();
+        scan(hot);
+        return policy.getHits();
+    }
+
+    @Test public void scanResistance() throws Exception {
+        assertEquals(0, hotPagesAfterScan(new LruPolicy()));
+        assertEquals(0, hotPagesAfterScan(new ClockPolicy()));
+        assertEquals(4, hotPagesAfterScan(new ArcPolicy()));
+    }
+
+    @Test public void hitRatio() throws Exception {
+        EvictionPolicy policy = new ClockPolicy();
+        pool(policy);
+        assertEquals(0.0, policy.getHitRatio(), 0);
+        scan(hot);
+        assertEquals(0, policy.getHits());
+        assertEquals(4, policy.getMisses());
+        scan(hot);
+        assertEquals(4, policy.getHits());
+        assertEquals(0.5, policy.getHitRatio(), 0);
+    }
+
+    /** No policy evicts a dirty page, however many pages a scan reads. */
+    @Test public void dirtyPagesStay() throws Exception {
+        EvictionPolicy[] policies = { new LruPolicy(), new ClockPolicy(), new ArcPolicy() };
+        for (EvictionPolicy policy : policies) {
+            BufferPool pool = pool(policy);
+            PageId pid = new HeapPageId(hot.getId(), 0);
+            Page page = pool.getPage(tid, pid, Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+            scan(big);
+            assertSame(page, pool.getPage(tid, pid, Permissions.READ_ONLY));
+            page.markDirty(false, null);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
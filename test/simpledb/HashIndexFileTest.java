@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends TestUtil.CreateIndexFile {
+    private HashIndexFile index;
+
+    /**
+     * Creates an empty index on field 0 of two int field tuples, with small
+     * pages so that a few thousand entries split many buckets.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        index = new HashIndexFile(createIndexFile(".hidx"), TABLE, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(index);
+    }
+
+    @After public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private static Set<RecordId> read(DbFileIterator it) throws Exception {
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        it.open();
+        while (it.hasNext())
+            assertTrue(rids.add(it.next().getRecordId()));
+        it.close();
+        return rids;
+    }
+
+    /** @return the RecordIds of the tuples with key value, or all if value is null */
+    private static Set<RecordId> expected(Collection<Tuple> live, Integer value) {
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        for (Tuple t : live) {
+            if (value == null || ((IntField) t.getField(0)).getValue() == value)
+                rids.add(t.getRecordId());
+        }
+        return rids;
+    }
+
+    private void checkQueries(Collection<Tuple> live) throws Exception {
+        assertEquals(expected(live, null), read(index.iterator(tid)));
+        int[] values = { -1, 0, 1, KEYS / 2, KEYS - 1, KEYS };
+        for (int v : values)
+            assertEquals("= " + v, expected(live, v),
+                    read(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(v))));
+    }
+
+    /** Inserts split buckets and double the directory. */
+    @Test public void insert() throws Exception {
+        for (Tuple t : tuples)
+            index.insertTuple(tid, t);
+        assertTrue(index.getDepth(tid) >= 5);
+        checkQueries(tuples);
+        assertFalse(index.supports(Predicate.Op.LESS_THAN));
+    }
+
+    /** Entries with the same key go to overflow pages, not a deeper directory. */
+    @Test public void sameKey() throws Exception {
+        for (int i = 0; i < N; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { 7, i });
+            t.setRecordId(new RecordId(new HeapPageId(TABLE, i / 10), i % 10));
+            index.insertTuple(tid, t);
+        }
+        assertEquals(0, index.getDepth(tid));
+        assertEquals(N, read(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(7))).size());
+    }
+
+    /**
+     * Splits buckets while the pool is crowded with dirty pages, so the
+     * pages an insert holds must stay cached until it has changed them;
+     * the index read back from disk has every entry.
+     */
+    @Test public void insertUnderPressure() throws Exception {
+        SystemTestUtil.crowdBufferPool(10, tid);
+        for (Tuple t : tuples)
+            index.insertTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        checkQueries(tuples);
+    }
+
+    /** Deleted entries disappear, and deleting a missing entry fails. */
+    @Test public void delete() throws Exception {
+        for (Tuple t : tuples)
+            index.insertTuple(tid, t);
+        LinkedHashSet<Tuple> live = new LinkedHashSet<Tuple>(tuples);
+        for (int i = 0; i < N; i += 2) {
+            index.deleteTuple(tid, tuples.get(i));
+            live.remove(tuples.get(i));
+        }
+        checkQueries(live);
+
+        try {
+            index.deleteTuple(tid, tuples.get(0));
+            fail("deleted an entry twice");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** A bulk loaded index answers queries like one built by inserts. */
+    @Test public void bulkLoad() throws Exception {
+        DbFileIterator source = new AbstractDbFileIterator() {
+            private Iterator<Tuple> it;
+            public void open() {
+                it = tuples.iterator();
+            }
+            public void rewind() {
+                open();
+            }
+            protected Tuple readNext() {
+                return it != null && it.hasNext() ? it.next() : null;
+            }
+        };
+        assertEquals(N, index.bulkLoad(source));
+        assertTrue(index.getDepth(tid) >= 5);
+        checkQueries(tuples);
+
+        // and keeps working after more inserts
+        Tuple t = Utility.getHeapTuple(new int[] { KEYS / 2, -1 });
+        t.setRecordId(new RecordId(new HeapPageId(TABLE, 0), 99));
+        index.insertTuple(tid, t);
+        ArrayList<Tuple> all = new ArrayList<Tuple>(tuples);
+        all.add(t);
+        checkQueries(all);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
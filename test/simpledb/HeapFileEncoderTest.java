@@ -0,0 +1,79 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    /**
+     * An input spanning several parser chunks is loaded in input order,
+     * with full pages and the expected number of them.
+     */
+    @Test public void multipleChunks() throws Exception {
+        int rows = 3 * HeapFileEncoder.CHUNK_SIZE / 20;
+        File in = File.createTempFile("encoder", ".txt");
+        in.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(in)));
+        for (int i = 0; i < rows; i++) {
+            pw.print(i + "| name" + i + " |" + (-i) + "\r\n");
+            if (i % 1000 == 0)
+                pw.print("\n");
+        }
+        pw.print(rows + "|last|0"); // no line terminator
+        pw.close();
+        rows++;
+
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 3, types, '|',
+                PageFormat.HEAP, new PrintStream(progress));
+        assertTrue(progress.toString().contains(rows + " rows"));
+
+        TupleDesc td = new TupleDesc(types);
+        HeapFile hf = new HeapFile(out, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int perPage = new HeapPage(new HeapPageId(hf.getId(), 0),
+                HeapPage.createEmptyPageData()).getNumEmptySlots();
+        assertEquals((rows + perPage - 1) / perPage, hf.numPages());
+
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < rows - 1; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(-i), t.getField(2));
+        }
+        assertEquals(new StringField("last", Type.STRING_LEN), it.next().getField(1));
+        assertFalse(it.hasNext());
+        it.close();
+        hf.close();
+    }
+
+    /**
+     * An empty input still produces one (empty) page.
+     */
+    @Test public void emptyInput() throws Exception {
+        File in = File.createTempFile("encoder", ".txt");
+        in.deleteOnExit();
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2);
+        assertEquals(BufferPool.getPageSize(), out.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
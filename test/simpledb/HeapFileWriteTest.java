@@ -43,6 +43,74 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples(): the last page is filled first,
+     * the rest goes to new pages, which are logged in batches.
+     */
+    @Test public void insertTuples() throws Exception {
+        int n = 504 * 300 + 10;
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(n, empty.insertTuples(tid, new TestUtil.MockScan(0, n, 2)));
+        assertEquals(301, empty.numPages());
+        assertEquals(300, Database.getLogFile().getTotalRecords() - records);
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(count), it.next().getField(0));
+            count++;
+        }
+        it.close();
+        assertEquals(n, count);
+
+        // the partly filled last page is used by the next insert
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(301, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() reusing a slot freed by
+     * HeapFile.deleteTuple() on an earlier page
+     */
+    @Test public void reuseDeletedSlot() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        HeapPage p0 = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        first = p0.iterator().next();
+        empty.deleteTuple(tid, first);
+        assertEquals(1, p0.getNumEmptySlots());
+
+        Tuple t = Utility.getHeapTuple(9999, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(0, p0.getNumEmptySlots());
+    }
+
+    /**
+     * A page filled in the buffer pool and then discarded, as when its
+     * transaction rolls back, is empty again on disk and is reused.
+     */
+    @Test public void reuseDiscardedPage() throws Exception {
+        for (int i = 0; i < 504; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(1, empty.numPages());
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        Database.getBufferPool().discardPage(pid);
+
+        Tuple t = Utility.getHeapTuple(9999, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(1, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+    }
+
     /**
      * JUnit suite target
      */
@@ -99,6 +99,20 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+            Tuple tup = page.getTupleFromSlot(i);
+            assertEquals(new IntField(EXAMPLE_VALUES[i][0]), tup.getField(0));
+            assertEquals(new IntField(EXAMPLE_VALUES[i][0]), page.getField(i, 0));
+        }
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
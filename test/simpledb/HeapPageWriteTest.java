@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,68 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples from the iterator decode their fields lazily, and keep their
+     * values once their slot is deleted and reused.
+     */
+    @Test public void lazyTupleOutlivesSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple t = page.iterator().next();
+        int[] expected = HeapPageReadTest.EXAMPLE_VALUES[0];
+        assertEquals(expected[0], ((IntField) t.getField(0)).getValue());
+        page.deleteTuple(t);
+        page.insertTuple(Utility.getHeapTuple(new int[] { -1, -2 }));
+        assertEquals(expected[0], ((IntField) t.getField(0)).getValue());
+        assertEquals(expected[1], ((IntField) t.getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() and HeapPage.iterator() on a page
+     * whose slot count isn't a multiple of the header word size
+     */
+    @Test public void fillPartialHeaderWord() throws Exception {
+        HeapPageId pid3 = new HeapPageId(-2, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-2, Utility.getTupleDesc(3)), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(pid3, HeapPage.createEmptyPageData());
+        // floor(4096 * 8 / (12 * 8 + 1)) slots
+        assertEquals(337, page.getNumEmptySlots());
+
+        for (int i = 0; i < 337; ++i)
+            page.insertTuple(Utility.getHeapTuple(i, 3));
+        assertEquals(0, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(count), it.next().getField(0));
+            count++;
+        }
+        assertEquals(337, count);
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() and HeapPage.getBeforeImage()
+     * after modifying a page in place
+     */
+    @Test public void pageDataAfterInsert() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple addition = Utility.getHeapTuple(77, 2);
+        page.insertTuple(addition);
+
+        // the buffer passed in is left alone and still backs the before image
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, data));
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(483, copy.getNumEmptySlots());
+        int slot = addition.getRecordId().tupleno();
+        assertTrue(TestUtil.compareTuples(addition, copy.getTupleFromSlot(slot)));
+
+        page.deleteTuple(addition);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
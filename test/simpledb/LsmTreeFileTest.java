@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LsmTreeFileTest extends SimpleDbTestBase {
+    private static final int N = 2000;
+    private static final int KEYS = 300;
+
+    private File dir;
+    private LsmTreeFile file;
+    private TransactionId tid;
+    // the value (field 1) of each live tuple, by key (field 0)
+    private HashMap<Integer, Integer> values;
+
+    /**
+     * Creates an empty table of two int fields, sorted by field 0, with a
+     * small memtable so that a few thousand tuples make many runs.
+     */
+    @Before public void setUp() throws Exception {
+        Database.reset();
+        dir = File.createTempFile("lsm", "");
+        dir.delete();
+        dir.mkdir();
+        file = open();
+        tid = new TransactionId();
+        values = new HashMap<Integer, Integer>();
+    }
+
+    private LsmTreeFile open() {
+        LsmTreeFile f = new LsmTreeFile(new File(dir, "events.dat"), Utility.getTupleDesc(2), 0);
+        f.setMemtableSize(100);
+        f.setMaxRuns(3);
+        Database.getCatalog().addTable(f);
+        return f;
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.reset();
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    /** Inserts N tuples with random keys and values 0 to N - 1. */
+    private ArrayList<Tuple> insert() throws Exception {
+        Random r = new Random(3);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < N; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(KEYS), i });
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            assertNotNull(t.getRecordId());
+            values.put(i, ((IntField) t.getField(0)).getValue());
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** Checks that it returns the live tuples in key order. */
+    private void check(DbFileIterator it) throws Exception {
+        HashMap<Integer, Integer> seen = new HashMap<Integer, Integer>();
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        int last = Integer.MIN_VALUE;
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            assertTrue(rids.add(t.getRecordId()));
+            seen.put(((IntField) t.getField(1)).getValue(), key);
+        }
+        it.close();
+        assertEquals(values, seen);
+    }
+
+    @Test public void insertAndScan() throws Exception {
+        insert();
+        check(file.iterator(tid));
+        file.awaitCompaction();
+        assertTrue(file.numRuns() > 0);
+        assertTrue(file.numRuns() <= 3);
+        check(file.iterator(tid));
+    }
+
+    /** Deletes through the Delete operator reach tuples in the memtable and in runs. */
+    @Test public void delete() throws Exception {
+        insert();
+        Delete d = new Delete(tid, new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(KEYS / 3)), new SeqScan(tid, file.getId(), "t")));
+        d.open();
+        int deleted = ((IntField) d.next().getField(0)).getValue();
+        d.close();
+        Iterator<Integer> it = values.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() < KEYS / 3)
+                it.remove();
+        }
+        assertEquals(N - values.size(), deleted);
+        check(file.iterator(tid));
+
+        file.flush();
+        file.compact();
+        assertEquals(1, file.numRuns());
+        check(file.iterator(tid));
+    }
+
+    /** Deleting t again, with its old RecordId, fails. */
+    private void assertNotDeletable(Tuple t, RecordId rid) throws Exception {
+        t.setRecordId(rid);
+        try {
+            file.deleteTuple(tid, t);
+            fail("deleted a tuple that isn't in the table");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A tuple in a run is deleted by a tombstone, which a second delete
+     * finds in the memtable and, once flushed, in a run.
+     */
+    @Test public void deleteTwice() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        file.flush();
+        assertEquals(0, file.getMemtableEntries());
+        RecordId rid = t.getRecordId();
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertNull(t.getRecordId());
+        assertEquals(1, file.getMemtableEntries());
+        check(file.iterator(tid));
+        assertNotDeletable(t, rid);
+        file.flush();
+        assertNotDeletable(t, rid);
+        file.compact();
+        assertNotDeletable(t, rid);
+        assertEquals(0, file.getMemtableEntries());
+    }
+
+    /**
+     * Deleting a tuple still in the memtable twice, or one that was never
+     * inserted, fails and writes no tombstone.
+     */
+    @Test public void deleteMemtableTupleTwice() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        RecordId rid = t.getRecordId();
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, file.getMemtableEntries());
+        assertNotDeletable(t, rid);
+        assertNotDeletable(Utility.getHeapTuple(new int[] { 3, 4 }),
+                new RecordId(new HeapPageId(file.getId(), 0), 99));
+        assertEquals(0, file.getMemtableEntries());
+        check(file.iterator(tid));
+    }
+
+    /** A key lookup reads only the runs whose bloom filters may hold the key. */
+    @Test public void keyLookup() throws Exception {
+        file.setMaxRuns(100);
+        // each run holds its own range of keys
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i });
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            values.put(i, i);
+        }
+        assertEquals(10, file.numRuns());
+        HashMap<Integer, Integer> all = values;
+        values = new HashMap<Integer, Integer>();
+        values.put(456, 456);
+        check(file.keyIterator(tid, new IntField(456)));
+        assertTrue(file.getRunsSkipped() >= 8);
+        values = new HashMap<Integer, Integer>();
+        check(file.keyIterator(tid, new IntField(5000)));
+        values = all;
+        check(file.iterator(tid));
+    }
+
+    /** The runs and the memtable, rebuilt from the log, survive reopening. */
+    @Test public void reopen() throws Exception {
+        ArrayList<Tuple> tuples = insert();
+        Database.getBufferPool().deleteTuple(tid, tuples.get(0));
+        Database.getBufferPool().deleteTuple(tid, tuples.get(N - 1));
+        values.remove(0);
+        values.remove(N - 1);
+        assertTrue(file.getMemtableEntries() > 0);
+        file.close();
+
+        file = open();
+        check(file.iterator(tid));
+        Tuple t = Utility.getHeapTuple(new int[] { 7, N });
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        values.put(N, 7);
+        check(file.iterator(tid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LsmTreeFileTest.class);
+    }
+}
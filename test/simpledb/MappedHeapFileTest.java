@@ -0,0 +1,104 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private MappedHeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1200, 1000, null, tuples);
+        hf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage()
+     */
+    @Test
+    public void readPage() throws Exception {
+        assertEquals(3, hf.numPages());
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(0, page.getNumEmptySlots());
+        page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2));
+        assertEquals(504 * 3 - 1200, page.getNumEmptySlots());
+    }
+
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Pages appended after the file was first mapped must be readable.
+     */
+    @Test
+    public void readAfterGrow() throws Exception {
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 3),
+                HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(page);
+
+        assertEquals(4, hf.numPages());
+        page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 3));
+        assertEquals(503, page.getNumEmptySlots());
+        Tuple t = page.iterator().next();
+        assertEquals(new IntField(7), t.getField(0));
+    }
+
+    /**
+     * A page read from the mapping must keep its before image once it is
+     * modified and written back over the mapped bytes.
+     */
+    @Test
+    public void modifyMappedPage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        Tuple t = page.iterator().next();
+        Field f = t.getField(0);
+        page.deleteTuple(t);
+        assertEquals(1, page.getNumEmptySlots());
+
+        hf.writePage(page);
+        HeapPage before = page.getBeforeImage();
+        assertEquals(0, before.getNumEmptySlots());
+        assertEquals(f, before.getTupleFromSlot(0).getField(0));
+
+        HeapPage reread = (HeapPage) hf.readPage(pid);
+        assertEquals(1, reread.getNumEmptySlots());
+        assertFalse(reread.isSlotUsed(0));
+        assertArrayEquals(page.getPageData(), reread.getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MemoryTableTest extends SimpleDbTestBase {
+    private static final int N = 1000;
+
+    private TupleDesc td;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        Database.reset();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        tid = new TransactionId();
+    }
+
+    private Tuple tuple(int id) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("name" + id, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the ids of the tuples read by it */
+    private static ArrayList<Integer> ids(DbIterator it) throws Exception {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            ids.add(id);
+        }
+        it.close();
+        return ids;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        ArrayList<Integer> r = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+            r.add(i);
+        return r;
+    }
+
+    /** Inserts, deletes and scans through the usual operators, without any pages. */
+    @Test public void operators() throws Exception {
+        MemoryTable table = new MemoryTable(td);
+        Database.getCatalog().addTable(table, "dim");
+        for (int i = 0; i < N; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i));
+        assertEquals(N, table.numRows());
+        assertEquals(range(0, N), ids(new SeqScan(tid, table.getId(), "d")));
+
+        Delete d = new Delete(tid, new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(100)), new SeqScan(tid, table.getId(), "d")));
+        d.open();
+        assertEquals(100, ((IntField) d.next().getField(0)).getValue());
+        d.close();
+        assertEquals(N - 100, table.numRows());
+        assertEquals(range(100, N), ids(new SeqScan(tid, table.getId(), "d")));
+
+        // the rows of deleted tuples are reused
+        Tuple t = tuple(N);
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(0, t.getRecordId().tupleno());
+        try {
+            Database.getCatalog().createIndex("dim.id", table.getId(), "id");
+            fail("indexed a memory table");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** A checkpoint of the log saves the table, which is read back when it is opened. */
+    @Test public void snapshot() throws Exception {
+        File f = File.createTempFile("dim", ".mem");
+        f.delete();
+        f.deleteOnExit();
+        MemoryTable table = new MemoryTable(td, f);
+        Database.getCatalog().addTable(table, "dim");
+        for (int i = 0; i < N; i++)
+            table.insertTuple(tid, tuple(i));
+        Tuple t = tuple(N);
+        table.insertTuple(tid, t);
+        table.deleteTuple(tid, t);
+        Database.getCatalog().checkpoint();
+        assertTrue(f.exists());
+        // changes after the checkpoint aren't saved
+        table.insertTuple(tid, tuple(N + 1));
+
+        MemoryTable reopened = new MemoryTable(td, f);
+        assertEquals(N, reopened.numRows());
+        assertEquals(range(0, N), ids(new SeqScan(tid, addTable(reopened), "d")));
+    }
+
+    /** A snapshot that can't be read is never replaced by an empty table. */
+    @Test public void badSnapshot() throws Exception {
+        File f = File.createTempFile("dim", ".mem");
+        f.deleteOnExit();
+        byte[] junk = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(junk);
+        out.close();
+        MemoryTable table = new MemoryTable(td, f);
+        Database.getCatalog().addTable(table, "dim");
+        try {
+            table.insertTuple(tid, tuple(1));
+            fail("used a table whose snapshot can't be read");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            table.numRows();
+            fail("used a table whose snapshot can't be read");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getCatalog().checkpoint();
+        assertEquals(junk.length, f.length());
+    }
+
+    private static int addTable(MemoryTable table) {
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table.getId();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MemoryTableTest.class);
+    }
+}
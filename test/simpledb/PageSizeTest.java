@@ -0,0 +1,102 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tables with pages larger than BufferPool.getPageSize().
+ */
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final int ROWS = 10000;
+
+    private File encode() throws IOException {
+        File in = File.createTempFile("pagesize", ".txt");
+        in.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(in));
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + "," + (i * 2));
+        pw.close();
+
+        File out = File.createTempFile("pagesize", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, PAGE_SIZE, 2);
+        return out;
+    }
+
+    private void checkScan(HeapFile hf, int rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(2 * ((IntField) t.getField(0)).getValue()), t.getField(1));
+            count++;
+        }
+        scan.close();
+        assertEquals(rows, count);
+    }
+
+    /**
+     * A file of 64 KB pages is read, scanned through a buffer pool smaller
+     * than the file, and extended with 64 KB pages.
+     */
+    @Test public void largePages() throws Exception {
+        Database.resetBufferPool(4 * PAGE_SIZE / BufferPool.getPageSize());
+        File f = encode();
+        assertEquals(0, f.length() % PAGE_SIZE);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), PageFormat.HEAP, PAGE_SIZE);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(PAGE_SIZE, page.getPageData().length);
+        int perPage = (PAGE_SIZE * 8) / (8 * 8 + 1);
+        assertEquals((ROWS + perPage - 1) / perPage, hf.numPages());
+
+        checkScan(hf, ROWS);
+
+        int pages = hf.numPages();
+        TransactionId tid = new TransactionId();
+        assertEquals(perPage, hf.insertTuples(tid, new TestUtil.MockScan(0, perPage, 2)));
+        assertEquals(pages + 1, hf.numPages());
+        assertEquals(PAGE_SIZE * (long) hf.numPages(), f.length());
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    /**
+     * The catalog reads the page size of a table from its schema.
+     */
+    @Test public void catalogOption() throws Exception {
+        File dat = encode();
+        File schema = new File(dat.getParentFile(), dat.getName().replace(".dat", ".schema"));
+        schema.deleteOnExit();
+        String name = dat.getName().replace(".dat", "");
+        PrintWriter pw = new PrintWriter(new FileWriter(schema));
+        pw.println(name + " (a int, b int) pagesize=64k mapped");
+        pw.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(name));
+        assertTrue(hf instanceof MappedHeapFile);
+        assertEquals(PAGE_SIZE, hf.getPageSize());
+        checkScan(hf, ROWS);
+        hf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
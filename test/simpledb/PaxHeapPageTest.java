@@ -0,0 +1,120 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b" });
+        pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int a, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        return t;
+    }
+
+    /**
+     * The values of a column are stored next to each other, and the page
+     * holds as many tuples as a HeapPage.
+     */
+    @Test public void columnLayout() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        assertEquals(new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots(), slots);
+
+        page.insertTuple(makeTuple(1, 100));
+        page.insertTuple(makeTuple(2, 200));
+        byte[] data = page.getPageData();
+        int header = page.fieldOffset(0, 0);
+        assertEquals(1, Type.readInt(data, header));
+        assertEquals(2, Type.readInt(data, header + 4));
+        assertEquals(100, Type.readInt(data, header + 4 * slots));
+        assertEquals(200, Type.readInt(data, header + 4 * slots + 4));
+    }
+
+    /**
+     * Tuples read from a page decode their fields on demand, and survive
+     * the slot being deleted and reused.
+     */
+    @Test public void lazyTuples() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(makeTuple(i, -i));
+
+        PaxHeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(-i), t.getField(1));
+            assertTrue(TestUtil.compareTuples(makeTuple(i, -i), t));
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+
+        Tuple t = copy.getTupleFromSlot(3);
+        copy.deleteTuple(t);
+        copy.insertTuple(makeTuple(42, 42));
+        assertEquals(new IntField(3), t.getField(0));
+        assertEquals(new IntField(-3), t.getField(1));
+        assertTrue(TestUtil.compareTuples(makeTuple(42, 42), copy.getTupleFromSlot(3)));
+    }
+
+    /**
+     * HeapFileEncoder writes PAX files that HeapFile can scan.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File in = File.createTempFile("pax", ".txt");
+        in.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(in));
+        for (int i = 0; i < 2000; i++)
+            pw.println(i + "," + (2 * i));
+        pw.close();
+
+        File out = File.createTempFile("pax", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', PageFormat.PAX);
+
+        HeapFile hf = new HeapFile(out, td, PageFormat.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(makeTuple(count, 2 * count), t));
+            count++;
+        }
+        it.close();
+        assertEquals(2000, count);
+        hf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
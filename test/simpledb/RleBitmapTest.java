@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class RleBitmapTest extends SimpleDbTestBase {
+    private static final int BITS = 2000;
+
+    /** Sets random runs of bits in b and s. */
+    private static void fill(RleBitmap b, BitSet s, Random r) {
+        for (int i = 0; i < 60; i++) {
+            int start = r.nextInt(BITS);
+            int len = r.nextInt(40);
+            for (int j = start; j < Math.min(BITS, start + len); j++) {
+                assertEquals(!s.get(j), b.set(j));
+                s.set(j);
+            }
+        }
+    }
+
+    private static void check(BitSet s, RleBitmap b) {
+        assertEquals(s.cardinality(), b.cardinality());
+        for (int i = 0; i <= BITS; i++) {
+            assertEquals("bit " + i, s.get(i), b.get(i));
+            assertEquals("next " + i, s.nextSetBit(i), b.nextSetBit(i));
+        }
+    }
+
+    /** Sets and clears keep the runs in step with a BitSet. */
+    @Test public void setAndClear() {
+        Random r = new Random(5);
+        RleBitmap b = new RleBitmap();
+        BitSet s = new BitSet();
+        fill(b, s, r);
+        check(s, b);
+        for (int i = 0; i < 500; i++) {
+            int bit = r.nextInt(BITS);
+            assertEquals(s.get(bit), b.clear(bit));
+            s.clear(bit);
+        }
+        check(s, b);
+        // adjacent runs are merged
+        RleBitmap c = new RleBitmap();
+        c.set(1);
+        c.set(3);
+        c.set(2);
+        assertEquals(1, c.numRuns());
+    }
+
+    @Test public void andOr() {
+        Random r = new Random(9);
+        RleBitmap a = new RleBitmap(), b = new RleBitmap();
+        BitSet sa = new BitSet(), sb = new BitSet();
+        fill(a, sa, r);
+        fill(b, sb, r);
+        BitSet and = (BitSet) sa.clone();
+        and.and(sb);
+        BitSet or = (BitSet) sa.clone();
+        or.or(sb);
+        check(and, a.and(b));
+        check(or, a.or(b));
+        check(sa, a);
+    }
+
+    @Test public void serialize() throws IOException {
+        RleBitmap b = new RleBitmap();
+        fill(b, new BitSet(), new Random(1));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        b.serialize(new DataOutputStream(bytes));
+        RleBitmap c = RleBitmap.deserialize(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(b, c);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RleBitmapTest.class);
+    }
+}
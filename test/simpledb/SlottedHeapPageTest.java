@@ -0,0 +1,162 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take far less room than in a HeapPage.
+     */
+    @Test public void packsShortStrings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        try {
+            while (true) {
+                page.insertTuple(makeTuple(n, "row" + n));
+                n++;
+            }
+        } catch (DbException e) {
+            // page is full
+        }
+        HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertTrue(n > 4 * fixed.getNumEmptySlots());
+
+        // round trip through the page image
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(makeTuple(i, "row" + i), t));
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by deletes is reused, and RecordIds of the remaining
+     * tuples stay valid after compaction.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = makeTuple(tuples.size(), "a fairly long string value " + tuples.size());
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+
+        // free every other tuple, leaving holes all over the page
+        for (int i = 0; i < tuples.size(); i += 2)
+            page.deleteTuple(tuples.get(i));
+        assertNull(tuples.get(0).getRecordId());
+        assertFalse(page.isSlotUsed(0));
+
+        int added = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(makeTuple(-1, "another fairly long string " + added));
+            added++;
+        }
+        assertTrue(added >= tuples.size() / 2 - 1);
+
+        for (int i = 1; i < tuples.size(); i += 2) {
+            Tuple t = page.getTupleFromSlot(tuples.get(i).getRecordId().tupleno());
+            assertTrue(TestUtil.compareTuples(tuples.get(i), t));
+        }
+    }
+
+    /**
+     * A tuple can be deleted from a page read from disk, whose slots were
+     * never decoded.
+     */
+    @Test public void deleteFromFreshPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(makeTuple(i, "row" + i));
+
+        SlottedHeapPage fresh = new SlottedHeapPage(pid, page.getPageData());
+        Tuple doomed = makeTuple(5, "row5");
+        doomed.setRecordId(new RecordId(pid, 5));
+        fresh.deleteTuple(doomed);
+        assertNull(doomed.getRecordId());
+        assertFalse(fresh.isSlotUsed(5));
+
+        int count = 0;
+        Iterator<Tuple> it = fresh.iterator();
+        while (it.hasNext()) {
+            assertFalse(TestUtil.compareTuples(makeTuple(5, "row5"), it.next()));
+            count++;
+        }
+        assertEquals(9, count);
+    }
+
+    /**
+     * HeapFileEncoder writes slotted files that HeapFile can scan.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File in = File.createTempFile("slotted", ".txt");
+        in.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(in));
+        for (int i = 0; i < 2000; i++)
+            pw.println(i + ",name" + i);
+        pw.close();
+
+        File out = File.createTempFile("slotted", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',', PageFormat.SLOTTED);
+
+        HeapFile hf = new HeapFile(out, td, PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.numPages() < 2000 / 28);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(makeTuple(count, "name" + count), t));
+            count++;
+        }
+        it.close();
+        assertEquals(2000, count);
+
+        hf.insertTuple(tid, makeTuple(2000, "name2000"));
+        hf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
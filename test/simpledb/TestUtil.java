@@ -219,6 +219,11 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public int insertTuples(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -393,4 +398,46 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * Fixture for the tests of an index file on field 0 of two int field
+     * tuples. Pages are small, so that a few thousand entries fill many of
+     * them, and the tuples have RecordIds in table TABLE.
+     */
+    public static abstract class CreateIndexFile {
+        protected static final int TABLE = 1234;
+        protected static final int N = 5000;
+        protected static final int KEYS = 500;
+
+        protected TransactionId tid;
+        // N tuples with keys below KEYS
+        protected ArrayList<Tuple> tuples;
+
+        protected void setUp() throws Exception {
+            BufferPool.setPageSize(256);
+            Database.reset();
+            tid = new TransactionId();
+
+            Random r = new Random(17);
+            tuples = new ArrayList<Tuple>();
+            for (int i = 0; i < N; i++) {
+                Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(KEYS), i });
+                t.setRecordId(new RecordId(new HeapPageId(TABLE, i / 10), i % 10));
+                tuples.add(t);
+            }
+        }
+
+        protected void tearDown() throws Exception {
+            Database.getBufferPool().transactionComplete(tid);
+            BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+            Database.reset();
+        }
+
+        /** @return a new empty temporary file for the index */
+        protected static File createIndexFile(String suffix) throws IOException {
+            File f = File.createTempFile("index", suffix);
+            f.deleteOnExit();
+            return f;
+        }
+    }
 }
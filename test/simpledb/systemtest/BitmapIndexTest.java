@@ -0,0 +1,182 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int VALUES = 6;
+
+    private static BitmapIndex createIndex(HeapFile hf) throws Exception {
+        BitmapIndex index = Database.getCatalog().createBitmapIndex(
+                "bmx" + SystemTestUtil.getUUID(), hf.getId(), hf.getTupleDesc().getFieldName(0));
+        index.getFile().deleteOnExit();
+        return index;
+    }
+
+    /** Indexes a field other than the first, which createBitmapIndex can't name. */
+    private static BitmapIndex createIndex(HeapFile hf, int field) throws Exception {
+        File f = File.createTempFile("bmx", ".bmx");
+        f.delete();
+        f.deleteOnExit();
+        BitmapIndex index = new BitmapIndex(f, hf, field);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addIndex(index, "bmx" + SystemTestUtil.getUUID());
+        return index;
+    }
+
+    /** @return the tuples whose field a is in as and field b (if any) in bs */
+    private static ArrayList<ArrayList<Integer>> matching(ArrayList<ArrayList<Integer>> tuples,
+            List<Integer> as, List<Integer> bs) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (as.contains(t.get(0)) && (bs == null || bs.contains(t.get(1))))
+                result.add(t);
+        }
+        return result;
+    }
+
+    private static List<Field> fields(List<Integer> values) {
+        ArrayList<Field> fields = new ArrayList<Field>();
+        for (int v : values)
+            fields.add(new IntField(v));
+        return fields;
+    }
+
+    /** Reads a scan, checking that it returns tuples in RecordId order. */
+    private static ArrayList<ArrayList<Integer>> read(BitmapScan scan) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        RecordId last = null;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            RecordId rid = t.getRecordId();
+            if (last != null)
+                assertTrue(rid.getPageId().pageNumber() > last.getPageId().pageNumber()
+                        || (rid.getPageId().pageNumber() == last.getPageId().pageNumber()
+                            && rid.tupleno() > last.tupleno()));
+            last = rid;
+            result.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+        return result;
+    }
+
+    private static void assertSameTuples(List<ArrayList<Integer>> expected,
+            List<ArrayList<Integer>> actual) {
+        Comparator<ArrayList<Integer>> order = new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        };
+        ArrayList<ArrayList<Integer>> e = new ArrayList<ArrayList<Integer>>(expected);
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>(actual);
+        Collections.sort(e, order);
+        Collections.sort(a, order);
+        assertEquals(e, a);
+    }
+
+    /** Equality, IN lists, and an AND over two indexed fields. */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, VALUES, null, tuples);
+        BitmapIndex a = createIndex(hf);
+        BitmapIndex b = createIndex(hf, 1);
+        assertEquals(VALUES, a.numValues());
+
+        TransactionId tid = new TransactionId();
+        BitmapScan eq = new BitmapScan(tid, hf.getId(), "t");
+        eq.addPredicate(a, new IntField(2));
+        assertSameTuples(matching(tuples, Arrays.asList(2), null), read(eq));
+
+        BitmapScan in = new BitmapScan(tid, hf.getId(), "t");
+        in.addPredicate(a, fields(Arrays.asList(1, 3, VALUES + 1)));
+        assertSameTuples(matching(tuples, Arrays.asList(1, 3), null), read(in));
+
+        BitmapScan and = new BitmapScan(tid, hf.getId(), "t");
+        and.addPredicate(a, fields(Arrays.asList(0, 4)));
+        and.addPredicate(b, new IntField(5));
+        assertSameTuples(matching(tuples, Arrays.asList(0, 4), Arrays.asList(5)), read(and));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A selective scan reads only the pages holding matches. */
+    @Test public void readsMatchingPages() throws Exception {
+        HashMap<Integer, Integer> zero = new HashMap<Integer, Integer>();
+        zero.put(0, 0);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, VALUES, zero, null);
+        BitmapIndex index = createIndex(hf);
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 1 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().flushAllPages();
+
+        SystemTestUtil.ReadCounter reads = SystemTestUtil.resetBufferPoolCountingReads();
+        BitmapScan scan = new BitmapScan(tid, hf.getId(), "t");
+        scan.addPredicate(index, new IntField(1));
+        ArrayList<ArrayList<Integer>> result = read(scan);
+        assertEquals(1, result.size());
+        assertEquals(1, scan.getNumMatches());
+        assertEquals(1, reads.getReads(hf.getId()));
+        assertTrue(hf.numPages() > 10);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts and deletes update the bitmaps, which survive a reload. */
+    @Test public void maintenanceAndReload() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS / 4, VALUES, null, tuples);
+        BitmapIndex index = createIndex(hf);
+
+        TransactionId tid = new TransactionId();
+        Tuple added = Utility.getHeapTuple(new int[] { VALUES + 2, 7 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), added);
+        tuples.add(SystemTestUtil.tupleToList(added));
+        SeqScan all = new SeqScan(tid, hf.getId(), "t");
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        all.open();
+        while (all.hasNext()) {
+            Tuple t = all.next();
+            if (((IntField) t.getField(0)).getValue() == 3)
+                doomed.add(t);
+        }
+        all.close();
+        for (Tuple t : doomed) {
+            tuples.remove(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<Integer> values = Arrays.asList(3, VALUES + 2, 1);
+        tid = new TransactionId();
+        BitmapScan scan = new BitmapScan(tid, hf.getId(), "t");
+        scan.addPredicate(index, fields(values));
+        assertSameTuples(matching(tuples, values, null), read(scan));
+
+        // the saved bitmaps are read back rather than rebuilt
+        index.close();
+        BitmapIndex reopened = new BitmapIndex(index.getFile(), hf, 0);
+        assertTrue(reopened.load());
+        assertEquals(index.lookup(fields(values)), reopened.lookup(fields(values)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class ClusteredBTreeFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private ClusteredBTreeFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        createTable();
+    }
+
+    /** Creates the table and inserts ROWS tuples with distinct keys in random order. */
+    private void createTable() throws Exception {
+        File f = File.createTempFile("clustered", ".dat");
+        f.deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2);
+        table = new ClusteredBTreeFile(f, td, 0);
+        Database.getCatalog().addTable(table, "clustered" + SystemTestUtil.getUUID(),
+                td.getFieldName(0));
+
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < ROWS; i++)
+            keys.add(i * 2);
+        Collections.shuffle(keys, new Random(3));
+        tuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> inserts = new ArrayList<Tuple>();
+        for (int key : keys) {
+            inserts.add(Utility.getHeapTuple(new int[] { key, key % 13 }));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(key, key % 13)));
+        }
+
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(td, inserts), table.getId());
+        insert.open();
+        assertEquals(ROWS, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(tuples, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                return a.get(0).compareTo(b.get(0));
+            }
+        });
+    }
+
+    private static ArrayList<ArrayList<Integer>> read(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return result;
+    }
+
+    /** A SeqScan returns the table in key order. */
+    @Test public void scanInKeyOrder() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        assertTrue(scan.isSortedOn(0));
+        assertFalse(scan.isSortedOn(1));
+        assertEquals(tuples, read(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts through a pool of a few pages crowded with dirty pages, which
+     * evicts the tree's clean pages while inserts split them; the table
+     * read back from disk is whole.
+     */
+    @Test public void smallPool() throws Exception {
+        TransactionId crowd = new TransactionId();
+        SystemTestUtil.crowdBufferPool(10, crowd);
+        createTable();
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples, read(new SeqScan(tid, table.getId(), "t")));
+        final int from = ROWS / 2, to = from + 100;
+        SeqScan range = new SeqScan(tid, table.getId(), "t");
+        range.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from * 2)));
+        range.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(to * 2)));
+        assertEquals(tuples.subList(from, to), read(range));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A predicate on the key reads only the leaves in its range. */
+    @Test public void rangeScan() throws Exception {
+        Database.getBufferPool().flushAllPages();
+        SystemTestUtil.ReadCounter reads = SystemTestUtil.resetBufferPoolCountingReads();
+        final int from = ROWS / 2, to = from + 100;
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from * 2)));
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(to * 2)));
+        assertEquals(tuples.subList(from, to), read(scan));
+        assertTrue(reads.getReads(table.getId()) < table.numPages() / 2);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Sorting a clustered scan by its key keeps the scan's order. */
+    @Test public void orderBy() throws Exception {
+        TransactionId tid = new TransactionId();
+        OrderBy asc = new OrderBy(0, true, new SeqScan(tid, table.getId(), "t"));
+        assertEquals(tuples, read(asc));
+        OrderBy desc = new OrderBy(0, false, new SeqScan(tid, table.getId(), "t"));
+        ArrayList<ArrayList<Integer>> reversed = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.reverse(reversed);
+        assertEquals(reversed, read(desc));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Delete removes tuples by key, and keys stay unique. */
+    @Test public void deleteAndDuplicates() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new IntField(0)));
+        Delete delete = new Delete(tid, scan);
+        delete.open();
+        int deleted = ((IntField) delete.next().getField(0)).getValue();
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        ArrayList<ArrayList<Integer>> live = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) != 0)
+                live.add(t);
+        }
+        assertEquals(tuples.size() - live.size(), deleted);
+        tid = new TransactionId();
+        assertEquals(live, read(new SeqScan(tid, table.getId(), "t")));
+
+        try {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] { live.get(0).get(0), 0 }));
+            fail("inserted a duplicate key");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ClusteredBTreeFileTest.class);
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class FlushAllPagesTest extends SimpleDbTestBase {
+    /** Counts the writes issued. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page p) throws IOException {
+            writes++;
+            super.writePage(p);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            writes++;
+            super.writePages(pages);
+        }
+
+        public int writes = 0;
+    }
+
+    /**
+     * Dirty pages are written back with one write per run of consecutive
+     * pages, and end up on disk.
+     */
+    @Test public void coalesceRuns() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 1000, null, tuples);
+        InstrumentedHeapFile hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        // dirty pages 0-9 and 12-19, leaving a gap
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; i++) {
+            if (i == 10 || i == 11)
+                continue;
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            Tuple t = p.iterator().next();
+            tuples.remove(SystemTestUtil.tupleToList(t));
+            hf.deleteTuple(tid, t);
+        }
+
+        Database.getBufferPool().flushAllPages();
+        assertEquals(2, hf.writes);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FlushAllPagesTest.class);
+    }
+}
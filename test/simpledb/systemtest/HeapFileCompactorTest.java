@@ -0,0 +1,117 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class HeapFileCompactorTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+
+    /**
+     * Deletes every other tuple of a table, compacts it, and checks that
+     * the remaining tuples fit in about half the pages.
+     */
+    private void deleteAndCompact(int bufferPages) throws Exception {
+        Database.resetBufferPool(bufferPages);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+        assertEquals(PAGES, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            all.add(it.next());
+        it.close();
+
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < all.size(); i++) {
+            if (i % 2 == 0)
+                hf.deleteTuple(tid, all.get(i));
+            else
+                remaining.add(SystemTestUtil.tupleToList(all.get(i)));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        int records = Database.getLogFile().getTotalRecords();
+        HeapFileCompactor.Result r = HeapFileCompactor.compact(tid, hf);
+        assertEquals(PAGES, r.pagesBefore);
+        assertEquals(PAGES / 2, r.pagesAfter);
+        assertEquals(PAGES / 2, hf.numPages());
+        assertEquals((long) BufferPool.getPageSize() * PAGES / 2, hf.getFile().length());
+        assertTrue(r.tuplesMoved > 0);
+        assertTrue(Database.getLogFile().getTotalRecords() > records);
+
+        SystemTestUtil.matchTuples(hf, tid, remaining);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the tuples are on disk, not just in the buffer pool
+        Database.resetBufferPool(bufferPages);
+        SystemTestUtil.matchTuples(hf, remaining);
+
+        // inserts go to the end of the compacted file
+        TransactionId tid2 = new TransactionId();
+        hf.insertTuple(tid2, Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(PAGES / 2 + 1, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid2);
+    }
+
+    @Test public void compact() throws Exception {
+        deleteAndCompact(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** A buffer pool far smaller than the file forces several log/write rounds. */
+    @Test public void compactWithSmallBufferPool() throws Exception {
+        deleteAndCompact(6);
+    }
+
+    /**
+     * The index pages changed by moving tuples are written with each round,
+     * so after the buffer pool is dropped the index on disk still finds
+     * every tuple at its new place.
+     */
+    @Test public void compactIndexed() throws Exception {
+        Database.resetBufferPool(6);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples, "f");
+        BTreeFile index = Database.getCatalog().createIndex("idx" + SystemTestUtil.getUUID(),
+                hf.getId(), "f0");
+        index.getFile().deleteOnExit();
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            all.add(it.next());
+        it.close();
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < all.size(); i++) {
+            if (i % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, all.get(i));
+            else
+                remaining.add(SystemTestUtil.tupleToList(all.get(i)));
+        }
+        Database.getBufferPool().flushAllPages();
+
+        HeapFileCompactor.Result r = HeapFileCompactor.compact(tid, hf);
+        assertEquals(PAGES / 2, r.pagesAfter);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(6);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new IndexScan(tid, index, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(Integer.MIN_VALUE), "t"), remaining);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HeapFileCompactorTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int KEYS = 200;
+
+    /**
+     * Creates a table of three int fields named f0, f1 and f2, with a B+ tree
+     * index on f0 that includes f2.
+     */
+    private BTreeFile createTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, ROWS, KEYS, null, tuples, "f");
+        BTreeFile index = Database.getCatalog().createIndex("idx" + SystemTestUtil.getUUID(),
+                hf.getId(), "f0", Arrays.asList("f2"));
+        index.getFile().deleteOnExit();
+        return index;
+    }
+
+    /** @return the key and included field of the tuples whose key satisfies op value */
+    private static ArrayList<ArrayList<Integer>> entries(ArrayList<ArrayList<Integer>> tuples,
+            Predicate.Op op, int value) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                result.add(new ArrayList<Integer>(Arrays.asList(t.get(0), t.get(2))));
+        }
+        return result;
+    }
+
+    /** GROUP BY key, COUNT(*) over the index reads no pages of the table. */
+    @Test public void groupByWithoutHeapReads() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index = createTable(tuples);
+        assertEquals(2, index.getTupleDesc().numFields());
+        assertEquals(1, index.entryIndex(2));
+        assertEquals(-1, index.entryIndex(1));
+
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer c = counts.get(t.get(0));
+            counts.put(t.get(0), c == null ? 1 : c + 1);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet())
+            expected.add(new ArrayList<Integer>(Arrays.asList(e.getKey(), e.getValue())));
+
+        SystemTestUtil.ReadCounter reads = SystemTestUtil.resetBufferPoolCountingReads();
+        TransactionId tid = new TransactionId();
+        Aggregate counted = new Aggregate(new IndexOnlyScan(tid, index, "t"), 1, 0,
+                Aggregator.Op.COUNT);
+        SystemTestUtil.matchTuples(counted, expected);
+        assertEquals(0, reads.getReads(index.getTableId()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Range scans return the included field, kept up to date by the BufferPool. */
+    @Test public void rangeAndMaintenance() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index = createTable(tuples);
+        int table = index.getTableId();
+
+        TransactionId tid = new TransactionId();
+        Tuple added = new Tuple(Database.getCatalog().getTupleDesc(table));
+        added.setField(0, new IntField(KEYS + 5));
+        added.setField(1, new IntField(1));
+        added.setField(2, new IntField(42));
+        Database.getBufferPool().insertTuple(tid, table, added);
+        tuples.add(SystemTestUtil.tupleToList(added));
+        SeqScan all = new SeqScan(tid, table, "t");
+        all.open();
+        Tuple doomed = all.next();
+        all.close();
+        Database.getBufferPool().deleteTuple(tid, doomed);
+        tuples.remove(SystemTestUtil.tupleToList(doomed));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+
+        SystemTestUtil.ReadCounter reads = SystemTestUtil.resetBufferPoolCountingReads();
+        tid = new TransactionId();
+        int value = ((IntField) doomed.getField(0)).getValue();
+        SystemTestUtil.matchTuples(new IndexOnlyScan(tid, index, Predicate.Op.EQUALS,
+                new IntField(value), "t"), entries(tuples, Predicate.Op.EQUALS, value));
+        SystemTestUtil.matchTuples(new IndexOnlyScan(tid, index, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(KEYS - 10), "t"), entries(tuples, Predicate.Op.GREATER_THAN_OR_EQ, KEYS - 10));
+        assertEquals(0, reads.getReads(index.getTableId()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the IndexOnlyScan at the bottom of plan, or null if it reads the table */
+    private static IndexOnlyScan findIndexOnlyScan(DbIterator plan) {
+        if (plan instanceof IndexOnlyScan)
+            return (IndexOnlyScan) plan;
+        if (!(plan instanceof Operator))
+            return null;
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            IndexOnlyScan scan = findIndexOnlyScan(child);
+            if (scan != null)
+                return scan;
+        }
+        return null;
+    }
+
+    /** The optimizer reads a query over indexed fields from the index alone. */
+    @Test public void plannedWithoutHeapReads() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index = createTable(tuples);
+        int table = index.getTableId();
+        String name = Database.getCatalog().getTableName(table);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table, 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table, "t");
+        lp.addFilter("t.f0", Predicate.Op.GREATER_THAN_OR_EQ, Integer.toString(KEYS - 10));
+        lp.addProjectField("t.f0", null);
+        lp.addProjectField("t.f2", null);
+
+        SystemTestUtil.ReadCounter reads = SystemTestUtil.resetBufferPoolCountingReads();
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        IndexOnlyScan scan = findIndexOnlyScan(plan);
+        assertNotNull(scan);
+        assertSame(index, scan.getIndex());
+        SystemTestUtil.matchTuples(plan, entries(tuples, Predicate.Op.GREATER_THAN_OR_EQ, KEYS - 10));
+        assertEquals(0, reads.getReads(index.getTableId()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class IndexScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int KEYS = 2000;
+
+    private static ArrayList<ArrayList<Integer>> matching(ArrayList<ArrayList<Integer>> tuples,
+            Predicate.Op op, int value) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                result.add(t);
+        }
+        return result;
+    }
+
+    private static void check(IndexFile index, Predicate.Op op, int value,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, op, new IntField(value), "t");
+        SystemTestUtil.matchTuples(scan, matching(tuples, op, value));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Equality and range scans through an index made with createIndex. */
+    @Test public void createIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, KEYS, null, tuples);
+        String name = "idx" + SystemTestUtil.getUUID();
+        BTreeFile index = Database.getCatalog().createIndex(name, hf.getId(),
+                hf.getTupleDesc().getFieldName(0));
+        index.getFile().deleteOnExit();
+        assertEquals(1, Database.getCatalog().getIndexes(hf.getId()).size());
+
+        check(index, Predicate.Op.EQUALS, tuples.get(0).get(0), tuples);
+        check(index, Predicate.Op.EQUALS, KEYS + 1, tuples);
+        check(index, Predicate.Op.LESS_THAN, 10, tuples);
+        check(index, Predicate.Op.GREATER_THAN_OR_EQ, KEYS - 10, tuples);
+    }
+
+    /**
+     * An index file left behind by an index of the same name on another
+     * table is rebuilt, not reused; a matching one is reused.
+     */
+    @Test public void staleIndexFile() throws Exception {
+        String name = "idx" + SystemTestUtil.getUUID();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, ROWS, KEYS, null, null);
+        BTreeFile stale = Database.getCatalog().createIndex(name, other.getId(),
+                other.getTupleDesc().getFieldName(0));
+        HashIndexFile staleHash = Database.getCatalog().createHashIndex(name, other.getId(),
+                other.getTupleDesc().getFieldName(0));
+        stale.getFile().deleteOnExit();
+        stale.getStampFile().deleteOnExit();
+        staleHash.getFile().deleteOnExit();
+        staleHash.getStampFile().deleteOnExit();
+        assertTrue(stale.matches(other.getFile()));
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS / 2, KEYS, null, tuples);
+        assertFalse(stale.matches(hf.getFile()));
+        BTreeFile index = Database.getCatalog().createIndex(name, hf.getId(),
+                hf.getTupleDesc().getFieldName(0));
+        HashIndexFile hash = Database.getCatalog().createHashIndex(name, hf.getId(),
+                hf.getTupleDesc().getFieldName(0));
+        assertEquals(stale.getFile(), index.getFile());
+        check(index, Predicate.Op.LESS_THAN, 100, tuples);
+        check(hash, Predicate.Op.EQUALS, tuples.get(0).get(0), tuples);
+
+        long modified = index.getFile().lastModified();
+        Thread.sleep(1000);
+        BTreeFile reopened = Database.getCatalog().createIndex(name, hf.getId(),
+                hf.getTupleDesc().getFieldName(0));
+        assertEquals(modified, reopened.getFile().lastModified());
+        check(reopened, Predicate.Op.LESS_THAN, 100, tuples);
+    }
+
+    /** A point lookup reads the meta page and one page per level. */
+    @Test public void pointLookupReads() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, KEYS, null, tuples);
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, hf.getId(), 0, hf.getTupleDesc());
+        Database.getCatalog().addIndex(index, "index");
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(hf.iterator(tid));
+        int height = index.getHeight(tid);
+        assertTrue(height > 1);
+        Database.getBufferPool().transactionComplete(tid);
+
+        SystemTestUtil.ReadCounter reads = SystemTestUtil.resetBufferPoolCountingReads();
+        check(index, Predicate.Op.EQUALS, tuples.get(0).get(0), tuples);
+        assertEquals(height + 1, reads.getReads(index.getId()));
+    }
+
+    /** A hash index lookup reads the directory and one bucket. */
+    @Test public void hashIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, KEYS, null, tuples);
+        File f = File.createTempFile("index", ".hidx");
+        f.deleteOnExit();
+        HashIndexFile index = new HashIndexFile(f, hf.getId(), 0, hf.getTupleDesc());
+        Database.getCatalog().addIndex(index, "hindex");
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(hf.iterator(tid));
+        assertTrue(index.getDepth(tid) > 0);
+        check(index, Predicate.Op.EQUALS, tuples.get(0).get(0), tuples);
+        check(index, Predicate.Op.EQUALS, KEYS + 1, tuples);
+
+        // the BufferPool adds new tuples to the index
+        Tuple t = Utility.getHeapTuple(new int[] { KEYS + 5, 1 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+
+        SystemTestUtil.ReadCounter reads = SystemTestUtil.resetBufferPoolCountingReads();
+        check(index, Predicate.Op.EQUALS, KEYS + 5, tuples);
+        assertEquals(2, reads.getReads(index.getId()));
+    }
+
+    /** The BufferPool keeps indexes up to date, also through compaction. */
+    @Test public void maintenance() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS / 4, KEYS, null, tuples);
+        BTreeFile index = Database.getCatalog().createIndex("idx" + SystemTestUtil.getUUID(),
+                hf.getId(), hf.getTupleDesc().getFieldName(0));
+        index.getFile().deleteOnExit();
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { KEYS + 5, 1 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        ArrayList<Integer> row = SystemTestUtil.tupleToList(t);
+        tuples.add(row);
+        Database.getBufferPool().transactionComplete(tid);
+        check(index, Predicate.Op.EQUALS, KEYS + 5, tuples);
+
+        // delete the first half of the tuples and compact the rest
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple next = it.next();
+            if (next.getRecordId().getPageId().pageNumber() < hf.numPages() / 2)
+                doomed.add(next);
+        }
+        it.close();
+        for (Tuple d : doomed) {
+            Database.getBufferPool().deleteTuple(tid, d);
+            tuples.remove(SystemTestUtil.tupleToList(d));
+        }
+        Database.getBufferPool().flushAllPages();
+        HeapFileCompactor.Result r = HeapFileCompactor.compact(tid, hf);
+        assertTrue(r.tuplesMoved > 0);
+        Database.getBufferPool().transactionComplete(tid);
+
+        check(index, Predicate.Op.LESS_THAN, KEYS / 2, tuples);
+        check(index, Predicate.Op.GREATER_THAN_OR_EQ, KEYS / 2, tuples);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
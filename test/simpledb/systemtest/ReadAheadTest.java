@@ -0,0 +1,82 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that sequential scans prefetch the pages ahead of them without
+ * reading any page twice.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public synchronized Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    private static final int PAGES = 40;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private InstrumentedHeapFile table;
+
+    private void createTable() throws IOException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    /** Every prefetched page is used by the scan, and read only once. */
+    @Test public void prefetchAhead() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2 * PAGES);
+        createTable();
+
+        SystemTestUtil.matchTuples(table, tuples);
+        ReadAhead ra = pool.getReadAhead();
+        assertEquals(PAGES, table.readCount);
+        assertEquals(0, ra.getWasted());
+        assertEquals(ra.getPrefetched(), ra.getHits());
+        assertTrue(ra.getLateHits() <= ra.getHits());
+    }
+
+    /** The window stays within the buffer pool, and 0 turns read-ahead off. */
+    @Test public void window() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        createTable();
+        ReadAhead ra = pool.getReadAhead();
+
+        ra.setMaxWindow(100);
+        ra.setWindow(100);
+        assertEquals(5, ra.getWindow());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        ra.setAdaptive(false);
+        ra.setWindow(0);
+        ra.resetCounters();
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, ra.getPrefetched());
+        assertEquals(0, ra.getHits());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
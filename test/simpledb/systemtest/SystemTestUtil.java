@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -227,4 +228,49 @@ public class SystemTestUtil {
 		ret[1] = av;
 		return ret;
 	}
+
+    /**
+     * Replaces the buffer pool with one of numPages pages and fills all but
+     * two of them with pages of a new table that tid dirtied, so that the
+     * pool evicts clean pages as soon as it reads others.
+     */
+    public static void crowdBufferPool(int numPages, TransactionId tid)
+            throws IOException, DbException, TransactionAbortedException {
+        Database.resetBufferPool(numPages);
+        File f = File.createTempFile("crowd", ".dat");
+        f.deleteOnExit();
+        HeapFile other = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        while (other.numPages() < numPages - 2 || Database.getBufferPool().getNumCleanPages() > 2)
+            other.insertTuple(tid, Utility.getHeapTuple(new int[] { 1, 2 }));
+    }
+
+    /**
+     * The default eviction policy, counting the pages of each file read
+     * into the buffer pool.
+     */
+    public static class ReadCounter extends ArcPolicy {
+        private final HashMap<Integer, Integer> reads = new HashMap<Integer, Integer>();
+
+        public synchronized void pageAdded(PageId pid) {
+            super.pageAdded(pid);
+            Integer n = reads.get(pid.getTableId());
+            reads.put(pid.getTableId(), n == null ? 1 : n + 1);
+        }
+
+        /** @return the number of pages of file id read into the pool */
+        public synchronized int getReads(int id) {
+            Integer n = reads.get(id);
+            return n == null ? 0 : n;
+        }
+    }
+
+    /**
+     * Replaces the buffer pool with an empty one of the default size that
+     * counts the pages it reads.
+     */
+    public static ReadCounter resetBufferPoolCountingReads() {
+        ReadCounter counter = new ReadCounter();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES, counter);
+        return counter;
+    }
 }
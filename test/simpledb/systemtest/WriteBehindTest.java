@@ -0,0 +1,56 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    /**
+     * The writer writes dirty pages in the background, coalescing
+     * consecutive pages, and marks them clean.
+     */
+    @Test public void writeBehind() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+
+        // delete the first tuple of every page
+        TransactionId tid = new TransactionId();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage p = (HeapPage) pool.getPage(tid, new HeapPageId(hf.getId(), i),
+                    Permissions.READ_WRITE);
+            Tuple t = p.iterator().next();
+            tuples.remove(SystemTestUtil.tupleToList(t));
+            hf.deleteTuple(tid, t);
+            pages.add(p);
+        }
+
+        WriteBehind writer = pool.getWriteBehind();
+        writer.setRate(1000);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.getPagesWritten() < PAGES && System.currentTimeMillis() < deadline)
+            Thread.sleep(WriteBehind.TICK_MS);
+        writer.setRate(0);
+
+        assertEquals(PAGES, writer.getPagesWritten());
+        assertEquals(1, writer.getWrites());
+        for (Page p : pages)
+            assertNull(p.isDirty());
+
+        // the deletes are on disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(WriteBehindTest.class);
+    }
+}
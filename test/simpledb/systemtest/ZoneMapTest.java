@@ -0,0 +1,132 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+    private static final int PER_PAGE = 504;
+
+    private File file;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /** Creates a table whose first column ascends, e.g. a timestamp. */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < PAGES * PER_PAGE; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 7);
+            tuples.add(tuple);
+        }
+        file = File.createTempFile("zonemap", ".dat");
+        file.deleteOnExit();
+        ZoneMap.sidecarFor(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+    }
+
+    /** Scans the table keeping tuples with the first column op value. */
+    private static ArrayList<ArrayList<Integer>> scan(HeapFile hf, Predicate.Op op, int value,
+            int expectSkipped) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.addPredicate(new Predicate(0, op, new IntField(value)));
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.hasNext())
+            result.add(SystemTestUtil.tupleToList(scan.next()));
+        scan.close();
+        assertEquals(expectSkipped, scan.getPagesSkipped());
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(int from, int to) {
+        return new ArrayList<ArrayList<Integer>>(tuples.subList(from, to));
+    }
+
+    /** Pages are summarized by the first scan and skipped by later ones. */
+    @Test public void skipPages() throws Exception {
+        HeapFile hf = Utility.openHeapFile(2, file);
+        int last = PAGES - 1;
+        assertFalse(hf.getZoneMap().isKnown(0));
+
+        assertEquals(expected(last * PER_PAGE, PAGES * PER_PAGE),
+                scan(hf, Predicate.Op.GREATER_THAN_OR_EQ, last * PER_PAGE, 0));
+        assertTrue(hf.getZoneMap().isKnown(0));
+        assertEquals(Integer.valueOf(PER_PAGE), hf.getZoneMap().getMin(1, 0));
+        assertEquals(Integer.valueOf(2 * PER_PAGE - 1), hf.getZoneMap().getMax(1, 0));
+
+        assertEquals(expected(last * PER_PAGE, PAGES * PER_PAGE),
+                scan(hf, Predicate.Op.GREATER_THAN_OR_EQ, last * PER_PAGE, last));
+        assertEquals(expected(0, 10),
+                scan(hf, Predicate.Op.LESS_THAN, 10, last));
+        assertEquals(expected(3 * PER_PAGE + 5, 3 * PER_PAGE + 6),
+                scan(hf, Predicate.Op.EQUALS, 3 * PER_PAGE + 5, last));
+        assertEquals(new ArrayList<ArrayList<Integer>>(),
+                scan(hf, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE, PAGES));
+        assertEquals(3 * last + PAGES, hf.getZoneMap().getPagesSkipped());
+    }
+
+    /** Inserts widen the ranges and deletes narrow them. */
+    @Test public void insertAndDelete() throws Exception {
+        HeapFile hf = Utility.openHeapFile(2, file);
+        scan(hf, Predicate.Op.LESS_THAN, 0, 0);
+
+        // empty the last page
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().pageNumber() == PAGES - 1)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(new ArrayList<ArrayList<Integer>>(),
+                scan(hf, Predicate.Op.GREATER_THAN_OR_EQ, (PAGES - 1) * PER_PAGE, PAGES));
+
+        // the insert goes to the emptied page
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 5, 5 }));
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> result = scan(hf, Predicate.Op.EQUALS, 5, PAGES - 2);
+        assertEquals(2, result.size());
+        assertEquals(Integer.valueOf(5), hf.getZoneMap().getMax(PAGES - 1, 0));
+    }
+
+    /** The map is saved on close and only reused while the file is unchanged. */
+    @Test public void persist() throws Exception {
+        HeapFile hf = Utility.openHeapFile(2, file);
+        scan(hf, Predicate.Op.LESS_THAN, 0, 0);
+        hf.close();
+        assertTrue(ZoneMap.sidecarFor(file).exists());
+
+        hf = new HeapFile(file, hf.getTupleDesc());
+        Database.getCatalog().addTable(hf, "reopened");
+        assertTrue(hf.getZoneMap().isKnown(PAGES - 1));
+        assertEquals(expected(0, 1), scan(hf, Predicate.Op.LESS_THAN, 1, PAGES - 1));
+
+        // a file changed behind the map's back is summarized again
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        hf = new HeapFile(file, hf.getTupleDesc());
+        assertFalse(hf.getZoneMap().isKnown(0));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}